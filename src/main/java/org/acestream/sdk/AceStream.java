@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -77,8 +78,10 @@ public class AceStream {
     private static String sHttpApiProductKey;
     private static SelectedPlayer mLastSelectedPlayer = null;
     private static boolean sTestMode = false;
-    private static File sDefaultCacheDir = null;
-    private static File sAppExternalFilesDir = null;
+    // Result of last probe, replaced as a whole
+    private static volatile WorkingDirs sWorkingDirs = new WorkingDirs(null, null);
+    // Serializes probes
+    private static final Object sWorkingDirsLock = new Object();
     private static String sAppFilesDir;
     private static String sApplicationId;
     private static String sBackendDomain = "https://m.acestream.net";
@@ -88,13 +91,20 @@ public class AceStream {
     private static IBaseApplicationFactory sBaseApplicationFactory = null;
 
     public static void init(Context context, String appFilesDir, String deviceName, String deviceUuid) {
+        StartupTimeline.getInstance().start();
         sContext = context.getApplicationContext();
         sApplicationId = sContext.getPackageName();
         sApplicationVersionCode = MiscUtils.getAppVersionCode(sContext, sApplicationId);
         sApplicationVersionName = MiscUtils.getAppVersionName(sContext, sApplicationId);
         sDeviceUuid = deviceUuid;
         sAppFilesDir = appFilesDir;
-        sTransportFileCache = new LruCache<>(4 * 1024 * 1024);
+        // Size is number of chars
+        sTransportFileCache = new LruCache<String, String>(4 * 1024 * 1024) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return value.length();
+            }
+        };
     }
 
     public static void setHttpApiProductKey(String key) {
@@ -496,8 +506,9 @@ public class AceStream {
         List<CacheDirLocation> locations = new ArrayList<>();
         Resources res = context().getResources();
 
-        if(sDefaultCacheDir != null && sDefaultCacheDir.canWrite()) {
-            locations.add(new CacheDirLocation(res.getString(R.string.device_storage), sDefaultCacheDir.getAbsolutePath()));
+        File defaultCacheDir = sWorkingDirs.defaultCacheDir;
+        if(defaultCacheDir != null && defaultCacheDir.canWrite()) {
+            locations.add(new CacheDirLocation(res.getString(R.string.device_storage), defaultCacheDir.getAbsolutePath()));
         }
         else if(canWriteToExternalFilesDir()) {
             locations.add(new CacheDirLocation(res.getString(R.string.device_storage), externalFilesDir()));
@@ -522,63 +533,91 @@ public class AceStream {
     }
 
     public static boolean canWriteToExternalFilesDir() {
-        if(sAppExternalFilesDir == null) {
+        File dir = sWorkingDirs.externalFilesDir;
+        if(dir == null) {
             return false;
         }
         else {
-            return sAppExternalFilesDir.canWrite();
+            return dir.canWrite();
         }
     }
 
     public static void onStorageAccessGranted() {
         sStorageAccessGranted = true;
-        initWorkingDirs();
+        initWorkingDirsAsync();
     }
 
-    public static void initWorkingDirs() {
-        sAppExternalFilesDir = new File(Environment.getExternalStorageDirectory(), "org.acestream.engine");
-        if (!sAppExternalFilesDir.exists()) {
-            if(!sAppExternalFilesDir.mkdirs()) {
-                Log.w(TAG, "failed to create missing dir: " + sAppExternalFilesDir.getAbsolutePath());
-                sAppExternalFilesDir = null;
+    /**
+     * Probe working dirs on disk thread. Until probing is done readers get the last known dirs.
+     */
+    public static void initWorkingDirsAsync() {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                initWorkingDirs();
             }
-        }
+        };
 
-        if(sAppExternalFilesDir != null && !sAppExternalFilesDir.canWrite()) {
-            Log.w(TAG, "dir is not writable: " + sAppExternalFilesDir.getAbsolutePath());
-            sAppExternalFilesDir = null;
+        try {
+            Workers.disk().execute(task);
         }
-
-        if(sAppExternalFilesDir == null) {
-            sAppExternalFilesDir = context().getExternalFilesDir(null);
-            sDefaultCacheDir = sAppExternalFilesDir;
+        catch(RejectedExecutionException e) {
+            Log.w(TAG, "initWorkingDirsAsync: disk pool is full, run now");
+            task.run();
         }
-        else {
-            // use old style cache dir /sdcard/org.acestream.engine/.ACEStream
-            sDefaultCacheDir = new File(sAppExternalFilesDir, ".ACEStream");
-            if (!sDefaultCacheDir.exists()) {
-                if(!sDefaultCacheDir.mkdirs()) {
-                    Log.w(TAG, "failed to created missing dir: " + sDefaultCacheDir.getAbsolutePath());
-                    sDefaultCacheDir = null;
+    }
+
+    public static void initWorkingDirs() {
+        // Concurrent probes would publish results in random order
+        synchronized (sWorkingDirsLock) {
+            File appExternalFilesDir = new File(Environment.getExternalStorageDirectory(), "org.acestream.engine");
+            File defaultCacheDir;
+            if (!appExternalFilesDir.exists()) {
+                if(!appExternalFilesDir.mkdirs()) {
+                    Log.w(TAG, "failed to create missing dir: " + appExternalFilesDir.getAbsolutePath());
+                    appExternalFilesDir = null;
                 }
             }
 
-            if(sDefaultCacheDir != null && !sDefaultCacheDir.canWrite()) {
-                Log.w(TAG, "dir is not writable: " + sDefaultCacheDir.getAbsolutePath());
-                sDefaultCacheDir = null;
+            if(appExternalFilesDir != null && !appExternalFilesDir.canWrite()) {
+                Log.w(TAG, "dir is not writable: " + appExternalFilesDir.getAbsolutePath());
+                appExternalFilesDir = null;
             }
 
-            if(sDefaultCacheDir == null) {
-                sDefaultCacheDir = sAppExternalFilesDir;
+            if(appExternalFilesDir == null) {
+                appExternalFilesDir = context().getExternalFilesDir(null);
+                defaultCacheDir = appExternalFilesDir;
             }
-        }
+            else {
+                // use old style cache dir /sdcard/org.acestream.engine/.ACEStream
+                defaultCacheDir = new File(appExternalFilesDir, ".ACEStream");
+                if (!defaultCacheDir.exists()) {
+                    if(!defaultCacheDir.mkdirs()) {
+                        Log.w(TAG, "failed to created missing dir: " + defaultCacheDir.getAbsolutePath());
+                        defaultCacheDir = null;
+                    }
+                }
 
-        if(sAppExternalFilesDir == null) {
-            Log.i(TAG, "no working dir");
-        }
-        else {
-            Log.i(TAG, "working dir: " + sAppExternalFilesDir.getAbsolutePath());
+                if(defaultCacheDir != null && !defaultCacheDir.canWrite()) {
+                    Log.w(TAG, "dir is not writable: " + defaultCacheDir.getAbsolutePath());
+                    defaultCacheDir = null;
+                }
+
+                if(defaultCacheDir == null) {
+                    defaultCacheDir = appExternalFilesDir;
+                }
+            }
+
+            sWorkingDirs = new WorkingDirs(appExternalFilesDir, defaultCacheDir);
+
+            if(appExternalFilesDir == null) {
+                Log.i(TAG, "no working dir");
+            }
+            else {
+                Log.i(TAG, "working dir: " + appExternalFilesDir.getAbsolutePath());
+            }
         }
+        StartupTimeline.getInstance().mark(StartupTimeline.PHASE_WORKING_DIRS);
     }
 
     public static String filesDir() {
@@ -586,11 +625,12 @@ public class AceStream {
     }
 
     public static String externalFilesDir() {
-        if(sAppExternalFilesDir == null) {
+        File dir = sWorkingDirs.externalFilesDir;
+        if(dir == null) {
             return null;
         }
         else {
-            return sAppExternalFilesDir.getAbsolutePath();
+            return dir.getAbsolutePath();
         }
     }
 
@@ -745,4 +785,14 @@ public class AceStream {
     public static IBaseApplicationFactory getBaseApplicationFactory() {
         return sBaseApplicationFactory;
     }
+
+    private static class WorkingDirs {
+        final File externalFilesDir;
+        final File defaultCacheDir;
+
+        WorkingDirs(File externalFilesDir, File defaultCacheDir) {
+            this.externalFilesDir = externalFilesDir;
+            this.defaultCacheDir = defaultCacheDir;
+        }
+    }
 }
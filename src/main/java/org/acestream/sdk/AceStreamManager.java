@@ -13,18 +13,24 @@ import android.content.ServiceConnection;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
-import android.util.SparseArray;
 
 import org.acestream.engine.ServiceClient;
 import org.acestream.engine.service.v0.IAceStreamEngine;
 import org.acestream.sdk.controller.EngineApi;
+import org.acestream.sdk.controller.EngineEventClient;
+import org.acestream.sdk.controller.EngineGate;
+import org.acestream.sdk.controller.EngineSettingsStore;
+import org.acestream.sdk.controller.EngineStatPoller;
+import org.acestream.sdk.controller.MediaFilesIndex;
 import org.acestream.sdk.controller.api.AceStreamPreferences;
 import org.acestream.sdk.controller.api.TransportFileDescriptor;
 import org.acestream.sdk.controller.api.response.AuthData;
@@ -32,10 +38,15 @@ import org.acestream.sdk.controller.api.response.MediaFilesResponse;
 import org.acestream.sdk.errors.TransportFileParsingException;
 import org.acestream.sdk.interfaces.DeviceDiscoveryListener;
 import org.acestream.sdk.interfaces.EngineCallbackListener;
+import org.acestream.sdk.interfaces.EngineEventListener;
 import org.acestream.sdk.interfaces.EngineStatusListener;
 import org.acestream.sdk.interfaces.IAceStreamManager;
 import org.acestream.sdk.interfaces.ConnectableDeviceListener;
 import org.acestream.sdk.interfaces.RemoteDeviceListener;
+import org.acestream.sdk.utils.ConflatingDispatcher;
+import org.acestream.sdk.utils.IpcCallRegistry;
+import org.acestream.sdk.utils.IpcTracer;
+import org.acestream.sdk.utils.ListenerSet;
 import org.acestream.sdk.utils.Logger;
 import org.acestream.sdk.utils.MiscUtils;
 import org.acestream.sdk.utils.RunnableWithParams;
@@ -45,12 +56,12 @@ import org.json.JSONException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
@@ -65,14 +76,24 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
 
     private final static String TAG = "AS/Manager";
 
+    // How long to wait for final response from PlaybackManager
+    private final static long CAST_RESULT_TIMEOUT = 180000;
+    // Running cast keeps its call for device events
+    private final static long CAST_RESULT_ACKNOWLEDGED_TTL = 6 * 3600000;
+    private final static long ENGINE_SESSION_START_TIMEOUT = 120000;
+    private final static String ERROR_SERVICE_DISCONNECTED = "service disconnected";
+
     // static instance hack
     private static AceStreamManager sInstance = null;
 
+    private static volatile boolean sUseIpcThread = false;
+    private static volatile boolean sBindEngineOnCreate = false;
+
     // listeners and callbacks
-    private final Set<EngineStatusListener> mEngineStatusListeners = new CopyOnWriteArraySet<>();
+    private final ListenerSet<EngineStatusListener> mEngineStatusListeners = new ListenerSet<>();
     private final Set<DeviceDiscoveryListener> mDeviceDiscoveryListeners = new CopyOnWriteArraySet<>();
-    private final Set<RemoteDeviceListener> mRemoteDeviceListeners = new CopyOnWriteArraySet<>();
-    private final Set<ConnectableDeviceListener> mPlaybackStatusListeners = new CopyOnWriteArraySet<>();
+    private final ListenerSet<RemoteDeviceListener> mRemoteDeviceListeners = new ListenerSet<>();
+    private final ListenerSet<ConnectableDeviceListener> mPlaybackStatusListeners = new ListenerSet<>();
     private final Set<PlaybackStateCallback> mPlaybackStateCallbacks = new CopyOnWriteArraySet<>();
     private final Set<EngineCallbackListener> mEngineCallbackListeners = new CopyOnWriteArraySet<>();
     private final Set<Callback> mCallbacks = new CopyOnWriteArraySet<>();
@@ -86,7 +107,17 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         public void onConnected(Messenger remoteMessenger) {
             Logger.v(TAG, "remote service connected");
             mRemoteMessenger = remoteMessenger;
+            StartupTimeline.getInstance().mark(StartupTimeline.PHASE_REMOTE_CONNECTED);
             register();
+            mOutbound.setConnected();
+            // new service instance knows nothing about this client
+            synchronized (mEventSubscriptionLock) {
+                mSentEventSubscription = null;
+            }
+            if(mEngineStatusListeners.size() > 0) {
+                updateEngineStatusListeners();
+            }
+            updateEventSubscription();
         }
 
         @Override
@@ -94,26 +125,116 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
             Logger.v(TAG, "remote service disconnected");
             mRemoteMessenger = null;
             mReady = false;
+            // service is restarted automatically
+            mOutbound.setConnecting();
+
+            // New service instance knows nothing about pending calls
+            mCastResultCalls.failAll(ERROR_SERVICE_DISCONNECTED);
+            mEngineSessionStartCalls.failAll(ERROR_SERVICE_DISCONNECTED);
+
+            // Pending settings request was lost with the service: ask again when reconnected
+            mSettings.invalidate();
+            mSettings.cancelFetch();
+            if(!mOnEngineSettingsQueue.isEmpty() && mSettings.beginFetch()) {
+                sendMessage(obtainMessage(MSG_GET_PREFERENCES));
+            }
         }
     });
 
     // private fields
     private boolean mReady = false;
     private boolean mBonusAdsAvailable = false;
-    private final Handler mClientMessengerHandler = new ClientMessengerHandler();
+    // Set in obtainIpcLooper() when messages are handled on a dedicated thread
+    private HandlerThread mIpcThread;
+    private final ClientMessengerHandler mClientMessengerHandler = new ClientMessengerHandler(obtainIpcLooper());
     private final Messenger mClientMessenger = new Messenger(mClientMessengerHandler);
     private Messenger mRemoteMessenger = null;
     private ServiceClient mEngineServiceClient = null;
     private EngineApi mEngineApi = null;
     private AuthData mCurrentAuthData = null;
-    private Map<String,RemoteDevice> mRemoteDevices = new HashMap<>();
-    private SparseArray<CastResultListener> mCastResultListeners = new SparseArray<>();
-    private SparseArray<EngineSessionStartListener> mEngineSessionStartListeners = new SparseArray<>();
+    private final RemoteDeviceRegistry mRemoteDevices = new RemoteDeviceRegistry();
+    private final IpcCallRegistry<CastResultListener> mCastResultCalls = new IpcCallRegistry<>(
+            "cast",
+            CAST_RESULT_TIMEOUT,
+            CAST_RESULT_ACKNOWLEDGED_TTL,
+            new IpcCallRegistry.FailureHandler<CastResultListener>() {
+                @Override
+                public void onFailure(@NonNull CastResultListener listener, @NonNull String error) {
+                    listener.onError(error);
+                }
+            });
+    private final IpcCallRegistry<EngineSessionStartListener> mEngineSessionStartCalls = new IpcCallRegistry<>(
+            "session",
+            ENGINE_SESSION_START_TIMEOUT,
+            new IpcCallRegistry.FailureHandler<EngineSessionStartListener>() {
+                @Override
+                public void onFailure(@NonNull EngineSessionStartListener listener, @NonNull String error) {
+                    listener.onError(error);
+                }
+            });
     private EngineSession mEngineSession = null;
+    private EngineStatPoller mStatPoller = null;
+    private final EngineEventClient mEventClient = new EngineEventClient();
     protected CastResultListener mCastResultListener = null;
     private final List<Runnable> mOnReadyQueue = new CopyOnWriteArrayList<>();
     private final List<org.acestream.engine.controller.Callback<AceStreamPreferences>> mOnEngineSettingsQueue = new CopyOnWriteArrayList<>();
-    private AceStreamPreferences mAceStreamPreferences = new AceStreamPreferences();
+    private final EngineSettingsStore mSettings = new EngineSettingsStore();
+    private final Object mEventSubscriptionLock = new Object();
+    private EventSubscription mSentEventSubscription = null;
+    private final IpcTracer mIpcTracer = new IpcTracer();
+    private final OutboundMessageQueue mOutbound = new OutboundMessageQueue(new OutboundMessageQueue.Target() {
+        @Override
+        public boolean send(@NonNull Message msg) {
+            if(!isCallPending(msg)) {
+                // Caller already got error (timeout or disconnect), don't start it now
+                Log.v(TAG, "send: skip message of finished call: what=" + msg.what);
+                return true;
+            }
+            return sendNow(msg);
+        }
+
+        @Nullable
+        @Override
+        public String getCollapseKey(@NonNull Message msg) {
+            switch(msg.what) {
+                case MSG_SET_PREFERENCES:
+                case MSG_GET_PREFERENCES:
+                case MSG_SET_PLAYER_ACTIVITY_TIMEOUT:
+                case MSG_SET_HLS_STREAM:
+                case MSG_SET_ENGINE_STATUS_LISTENERS:
+                case MSG_SET_EVENT_SUBSCRIPTION:
+                    return String.valueOf(msg.what);
+                case MSG_DEVICE_SET_VOLUME:
+                    return msg.what + ":" + msg.getData().getString(MSG_PARAM_REMOTE_DEVICE_ID);
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public void collapse(@NonNull Message queued, @NonNull Message latest) {
+            if(queued.what == MSG_SET_PREFERENCES) {
+                // each message contains only changed preferences
+                Bundle prefs = queued.getData().getBundle(MSG_PARAM_PREFERENCES);
+                Bundle latestPrefs = latest.getData().getBundle(MSG_PARAM_PREFERENCES);
+                if(prefs != null && latestPrefs != null) {
+                    prefs.putAll(latestPrefs);
+                    return;
+                }
+            }
+            queued.setData(latest.getData());
+        }
+
+        @Override
+        public void onDropped(@NonNull final Message msg, @NonNull final String error) {
+            Workers.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    notifyMessageDropped(msg, error);
+                }
+            });
+        }
+    });
 
     // binder
     private IBinder mLocalBinder = new LocalBinder();
@@ -129,6 +250,45 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         return binder.getService();
     }
 
+    /**
+     * Receive messages from PlaybackManager on a dedicated thread instead of the main thread.
+     * Heavy payloads (engine status, device messages) are decoded there, then messages are
+     * conflated and handled on the main thread in the order they were sent. Listeners added with an executor
+     * get callbacks on that executor.
+     *
+     * Must be called before service is created.
+     */
+    public static void setUseIpcThread(boolean value) {
+        sUseIpcThread = value;
+    }
+
+    /**
+     * Bind engine service when manager is created, in parallel with PlaybackManager binding.
+     * Engine is not started until it's requested.
+     *
+     * Must be called before service is created.
+     */
+    public static void setBindEngineOnCreate(boolean value) {
+        sBindEngineOnCreate = value;
+    }
+
+    /**
+     * Startup phases timing.
+     */
+    @NonNull
+    public static StartupTimeline getStartupTimeline() {
+        return StartupTimeline.getInstance();
+    }
+
+    private Looper obtainIpcLooper() {
+        if(!sUseIpcThread) {
+            return Looper.getMainLooper();
+        }
+        mIpcThread = new HandlerThread("AS/ManagerIpc");
+        mIpcThread.start();
+        return mIpcThread.getLooper();
+    }
+
     // broadcast receiver
     private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
         @Override
@@ -171,12 +331,40 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         super.onCreate();
 
         sInstance = this;
+        StartupTimeline timeline = StartupTimeline.getInstance();
+        timeline.mark(StartupTimeline.PHASE_MANAGER_CREATED);
+
+        mStatPoller = new EngineStatPoller(this);
+
+        // Independent startup steps: binds complete asynchronously, disk work is done on
+        // worker threads.
+        timeline.mark(StartupTimeline.PHASE_REMOTE_BIND);
+        mRemoteClient.setConnectFailedListener(new RemoteClient.ConnectFailedListener() {
+            @Override
+            public void onConnectFailed() {
+                Log.w(TAG, "remote service is not available");
+                mOutbound.setMissing();
+            }
+        });
+        mRemoteClient.connect();
+
+        if(sBindEngineOnCreate) {
+            try {
+                initServiceClient();
+            }
+            catch(ServiceClient.ServiceMissingException e) {
+                Log.e(TAG, "onCreate: engine service not installed");
+            }
+        }
+
+        // start loading persistent index early
+        MediaFilesIndex.getInstance();
+        // probes working dirs in background when storage access is granted
+        AceStream.checkStorageAccess();
 
         final IntentFilter filter = new IntentFilter();
         filter.addAction(AceStream.ACTION_STOP_APP);
         registerReceiver(mBroadcastReceiver, filter);
-
-        mRemoteClient.connect();
     }
 
     @Override
@@ -186,9 +374,15 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
 
         sInstance = null;
         unregisterReceiver(mBroadcastReceiver);
+        mStatPoller.shutdown();
+        mEventClient.shutdown();
         unregister();
         disconnectEngineService();
         mRemoteClient.disconnect();
+
+        if(mIpcThread != null) {
+            mIpcThread.quit();
+        }
     }
 
     @Nullable
@@ -200,6 +394,8 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if(!mRemoteClient.isConnected()) {
+            // service may be installed since last attempt
+            mOutbound.setConnecting();
             mRemoteClient.connect();
         }
 
@@ -209,11 +405,56 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // messenger methods
     private void register() {
-        sendMessage(obtainMessage(MSG_REGISTER_CLIENT));
+        Message msg = obtainMessage(MSG_REGISTER_CLIENT);
+        // Service sends engine status as parcelable when it supports this version,
+        // otherwise as JSON.
+        Bundle data = new Bundle(2);
+        data.putInt(MSG_PARAM_PARCEL_VERSION, EngineStatus.PARCEL_VERSION);
+        // Service may send device handles instead of full descriptors
+        data.putBoolean(MSG_PARAM_DEVICE_HANDLES, true);
+        msg.setData(data);
+        // must be sent before queued messages
+        sendNow(msg);
     }
 
     private void unregister() {
-        sendMessage(obtainMessage(MSG_UNREGISTER_CLIENT));
+        sendNow(obtainMessage(MSG_UNREGISTER_CLIENT));
+    }
+
+    /**
+     * Fail callers waiting for response to message which was not sent.
+     */
+    private void notifyMessageDropped(@NonNull Message msg, @NonNull String error) {
+        Bundle d = msg.getData();
+        if(d.containsKey(MSG_PARAM_CAST_RESULT_LISTENER)) {
+            mCastResultCalls.fail(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER), error);
+        }
+        if(d.containsKey(MSG_PARAM_ENGINE_SESSION_START_LISTENER)) {
+            mEngineSessionStartCalls.fail(d.getInt(MSG_PARAM_ENGINE_SESSION_START_LISTENER), error);
+        }
+        if(msg.what == MSG_GET_PREFERENCES) {
+            mSettings.cancelFetch();
+            for(org.acestream.engine.controller.Callback<AceStreamPreferences> callback: mOnEngineSettingsQueue) {
+                callback.onError(error);
+            }
+            mOnEngineSettingsQueue.clear();
+        }
+    }
+
+    /**
+     * @return false if message belongs to call which is already finished
+     */
+    private boolean isCallPending(@NonNull Message msg) {
+        Bundle d = msg.getData();
+        if(d.containsKey(MSG_PARAM_CAST_RESULT_LISTENER)
+                && mCastResultCalls.get(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER)) == null) {
+            return false;
+        }
+        if(d.containsKey(MSG_PARAM_ENGINE_SESSION_START_LISTENER)
+                && mEngineSessionStartCalls.get(d.getInt(MSG_PARAM_ENGINE_SESSION_START_LISTENER)) == null) {
+            return false;
+        }
+        return true;
     }
 
     private Messenger getMessenger() {
@@ -226,19 +467,31 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         return msg;
     }
 
+    /**
+     * Send message to remote service. Messages sent before service is connected are queued.
+     */
     public void sendMessage(Message msg) {
-        if(mRemoteMessenger == null) {
-            //TODO: put messages to queue if we're waiting for connect
-            //TODO: skip messages if connect failed (service is not installed)
-            Log.v(TAG, "sendMessage: remote service is not connected");
-            return;
+        mOutbound.send(msg);
+    }
+
+    /**
+     * @return false if message was not sent because remote service is not connected
+     */
+    private boolean sendNow(Message msg) {
+        Messenger messenger = mRemoteMessenger;
+        if(messenger == null) {
+            Log.v(TAG, "sendNow: remote service is not connected");
+            return false;
         }
 
+        mIpcTracer.onSend(msg);
         try {
-            mRemoteMessenger.send(msg);
+            messenger.send(msg);
+            return true;
         }
         catch(RemoteException e) {
             Log.e(TAG, "sendMessage: failed: " + e.getMessage());
+            return false;
         }
     }
 
@@ -261,11 +514,15 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     private void notifyEngineSettingsUpdated(@Nullable AceStreamPreferences preferences) {
         Logger.vv(TAG, "notifyEngineSettingsUpdated");
 
-        if(preferences == null) return;
+        if(preferences == null) {
+            mSettings.cancelFetch();
+            return;
+        }
 
-        mAceStreamPreferences = preferences;
+        mSettings.set(preferences);
+        preferences = mSettings.current();
 
-        Logger.enableDebugLogging(mAceStreamPreferences.getBoolean("enable_debug_logging", false));
+        Logger.enableDebugLogging(preferences.getBoolean("enable_debug_logging", false));
 
         synchronized(mEngineSettingsCallbacks) {
             for (EngineSettingsCallback callback : mEngineSettingsCallbacks) {
@@ -313,19 +570,44 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // engine status listeners
     public void addEngineStatusListener(EngineStatusListener listener) {
-        mEngineStatusListeners.add(listener);
+        addEngineStatusListener(listener, Workers.mainThread());
+    }
+
+    /**
+     * @param executor Executor for callbacks, see {@link ListenerSet#add(Object, Executor)}
+     */
+    public void addEngineStatusListener(EngineStatusListener listener, Executor executor) {
+        mEngineStatusListeners.add(listener, executor);
         updateEngineStatusListeners();
+        updateEventSubscription();
     }
 
     public void removeEngineStatusListener(EngineStatusListener listener) {
         mEngineStatusListeners.remove(listener);
         updateEngineStatusListeners();
+        updateEventSubscription();
     }
 
-    private void notifyEngineStatus(EngineStatus status, RemoteDevice remoteDevice) {
-        for(EngineStatusListener listener: mEngineStatusListeners) {
-            listener.onEngineStatus(status, remoteDevice);
-        }
+    private void notifyEngineStatus(final EngineStatus status, final RemoteDevice remoteDevice) {
+        mEngineStatusListeners.forEach(new ListenerSet.Action<EngineStatusListener>() {
+            @Override
+            public void run(@NonNull EngineStatusListener listener) {
+                listener.onEngineStatus(status, remoteDevice);
+            }
+        });
+    }
+
+    /**
+     * Add listener for engine stats polled directly from engine.
+     * Unlike {@link #addEngineStatusListener(EngineStatusListener)} this works without remote
+     * service and reports only local playback session.
+     */
+    public void addEngineStatPollerListener(EngineStatusListener listener) {
+        mStatPoller.addListener(listener);
+    }
+
+    public void removeEngineStatPollerListener(EngineStatusListener listener) {
+        mStatPoller.removeListener(listener);
     }
 
     private void updateEngineStatusListeners() {
@@ -338,6 +620,50 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         sendMessage(msg);
     }
 
+    /**
+     * Tell service which events this client needs. Mask is built from registered listeners
+     * and sent only when it changes.
+     */
+    private void updateEventSubscription() {
+        int mask = 0;
+        if(mEngineStatusListeners.size() > 0) {
+            mask |= EventSubscription.EVENT_ENGINE_STATUS;
+        }
+        if(mRemoteDeviceListeners.size() > 0) {
+            mask |= EventSubscription.EVENT_DEVICE_AVAILABILITY | EventSubscription.EVENT_DEVICE_MESSAGE;
+        }
+        if(mPlaybackStatusListeners.size() > 0) {
+            mask |= EventSubscription.EVENT_PLAYBACK_STATUS | EventSubscription.EVENT_PLAYBACK_POSITION;
+        }
+        if(mPlaybackStateCallbacks.size() > 0) {
+            mask |= EventSubscription.EVENT_PLAYBACK_STATE;
+        }
+
+        // Connected devices keep their player state from device events
+        TreeSet<String> devices = new TreeSet<>();
+        for(RemoteDevice device: mRemoteDevices.getAll()) {
+            if(device.isConnected()) {
+                devices.add(device.getId());
+            }
+        }
+
+        EventSubscription subscription = new EventSubscription(mask, devices.toArray(new String[0]));
+        synchronized (mEventSubscriptionLock) {
+            if(mRemoteMessenger == null || subscription.isSameAs(mSentEventSubscription)) {
+                return;
+            }
+            mSentEventSubscription = subscription;
+        }
+
+        Logger.v(TAG, "updateEventSubscription: " + subscription);
+        Message msg = obtainMessage(MSG_SET_EVENT_SUBSCRIPTION);
+        Bundle data = new Bundle(2);
+        data.putInt(MSG_PARAM_EVENT_MASK, subscription.mask);
+        data.putStringArray(MSG_PARAM_DEVICE_FILTER, subscription.devices);
+        msg.setData(data);
+        sendMessage(msg);
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // engine callbacks
     public void addEngineCallbackListener(EngineCallbackListener listener) {
@@ -448,116 +774,178 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // remote device listeners
     public void addRemoteDeviceListener(RemoteDeviceListener listener) {
-        mRemoteDeviceListeners.add(listener);
+        addRemoteDeviceListener(listener, Workers.mainThread());
+    }
+
+    public void addRemoteDeviceListener(RemoteDeviceListener listener, Executor executor) {
+        mRemoteDeviceListeners.add(listener, executor);
+        updateEventSubscription();
     }
 
     public void removeRemoteDeviceListener(RemoteDeviceListener listener) {
         mRemoteDeviceListeners.remove(listener);
+        updateEventSubscription();
     }
 
-    private void notifyRemoteDeviceMessage(RemoteDevice device, JsonRpcMessage message) {
+    private void notifyRemoteDeviceMessage(final RemoteDevice device, final JsonRpcMessage message) {
         // pass message to device to update its status
         device.onMessage(message);
 
-        for(RemoteDeviceListener listener: mRemoteDeviceListeners) {
-            listener.onMessage(device, message);
-        }
+        mRemoteDeviceListeners.forEach(new ListenerSet.Action<RemoteDeviceListener>() {
+            @Override
+            public void run(@NonNull RemoteDeviceListener listener) {
+                listener.onMessage(device, message);
+            }
+        });
     }
 
-    private void notifyRemoteDeviceConnected(RemoteDevice device) {
+    private void notifyRemoteDeviceConnected(final RemoteDevice device) {
         Logger.vv(TAG, "notifyRemoteDeviceConnected: device=" + device);
         device.onConnected();
-        for(RemoteDeviceListener listener: mRemoteDeviceListeners) {
-            listener.onConnected(device);
-        }
+        updateEventSubscription();
+        mRemoteDeviceListeners.forEach(new ListenerSet.Action<RemoteDeviceListener>() {
+            @Override
+            public void run(@NonNull RemoteDeviceListener listener) {
+                listener.onConnected(device);
+            }
+        });
     }
 
-    private void notifyRemoteDeviceDisconnected(RemoteDevice device, boolean cleanShutdown) {
+    private void notifyRemoteDeviceDisconnected(final RemoteDevice device, final boolean cleanShutdown) {
         device.onDisconnected();
+        updateEventSubscription();
         Logger.vv(TAG, "notifyRemoteDeviceDisconnected: device=" + device + " cleanShutdown=" + cleanShutdown);
-        for(RemoteDeviceListener listener: mRemoteDeviceListeners) {
-            listener.onDisconnected(device, cleanShutdown);
-        }
+        mRemoteDeviceListeners.forEach(new ListenerSet.Action<RemoteDeviceListener>() {
+            @Override
+            public void run(@NonNull RemoteDeviceListener listener) {
+                listener.onDisconnected(device, cleanShutdown);
+            }
+        });
     }
 
-    public void notifyAvailable(RemoteDevice device) {
+    public void notifyAvailable(final RemoteDevice device) {
         Logger.vv(TAG, "notifyAvailable: device=" + device);
-        for(RemoteDeviceListener listener: mRemoteDeviceListeners) {
-            listener.onAvailable(device);
-        }
+        mRemoteDeviceListeners.forEach(new ListenerSet.Action<RemoteDeviceListener>() {
+            @Override
+            public void run(@NonNull RemoteDeviceListener listener) {
+                listener.onAvailable(device);
+            }
+        });
     }
 
-    public void notifyUnavailable(RemoteDevice device) {
+    public void notifyUnavailable(final RemoteDevice device) {
         Logger.vv(TAG, "notifyUnavailable: device=" + device);
-        for(RemoteDeviceListener listener: mRemoteDeviceListeners) {
-            listener.onUnavailable(device);
-        }
+        mRemoteDeviceListeners.forEach(new ListenerSet.Action<RemoteDeviceListener>() {
+            @Override
+            public void run(@NonNull RemoteDeviceListener listener) {
+                listener.onUnavailable(device);
+            }
+        });
     }
 
-    public void notifyPingFailed(RemoteDevice device) {
+    public void notifyPingFailed(final RemoteDevice device) {
         Logger.vv(TAG, "notifyPingFailed: device=" + device);
-        for(RemoteDeviceListener listener: mRemoteDeviceListeners) {
-            listener.onPingFailed(device);
-        }
+        mRemoteDeviceListeners.forEach(new ListenerSet.Action<RemoteDeviceListener>() {
+            @Override
+            public void run(@NonNull RemoteDeviceListener listener) {
+                listener.onPingFailed(device);
+            }
+        });
     }
 
-    public void notifyOutputFormatChanged(RemoteDevice device, String outputFormat) {
+    public void notifyOutputFormatChanged(final RemoteDevice device, final String outputFormat) {
         Logger.vv(TAG, "notifyOutputFormatChanged: device=" + device + " outputFormat=" + outputFormat);
-        for(RemoteDeviceListener listener: mRemoteDeviceListeners) {
-            listener.onOutputFormatChanged(device, outputFormat);
-        }
+        mRemoteDeviceListeners.forEach(new ListenerSet.Action<RemoteDeviceListener>() {
+            @Override
+            public void run(@NonNull RemoteDeviceListener listener) {
+                listener.onOutputFormatChanged(device, outputFormat);
+            }
+        });
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // playback status listeners (CSDK style)
     public void addPlaybackStatusListener(ConnectableDeviceListener listener) {
-        mPlaybackStatusListeners.add(listener);
+        addPlaybackStatusListener(listener, Workers.mainThread());
+    }
+
+    public void addPlaybackStatusListener(ConnectableDeviceListener listener, Executor executor) {
+        mPlaybackStatusListeners.add(listener, executor);
+        updateEventSubscription();
     }
 
     public void removePlaybackStatusListener(ConnectableDeviceListener listener) {
         mPlaybackStatusListeners.remove(listener);
+        updateEventSubscription();
     }
 
-    private void notifyPlaybackStatus(RemoteDevice device, int status) {
+    private void notifyPlaybackStatus(final RemoteDevice device, final int status) {
         Logger.vv(TAG, "notifyPlaybackStatus: status=" + status);
         device.getCsdkListener().onStatus(device, status);
-        for(ConnectableDeviceListener listener: mPlaybackStatusListeners) {
-            listener.onStatus(device, status);
-        }
+        mPlaybackStatusListeners.forEach(new ListenerSet.Action<ConnectableDeviceListener>() {
+            @Override
+            public void run(@NonNull ConnectableDeviceListener listener) {
+                listener.onStatus(device, status);
+            }
+        });
     }
 
-    private void notifyPlaybackPosition(RemoteDevice device, Long position) {
+    private void notifyPlaybackPosition(final RemoteDevice device, final Long position) {
         Logger.vv(TAG, "notifyPlaybackPosition: position=" + position);
         device.getCsdkListener().onPosition(device, position);
-        for(ConnectableDeviceListener listener: mPlaybackStatusListeners) {
-            listener.onPosition(device, position);
-        }
+        mPlaybackStatusListeners.forEach(new ListenerSet.Action<ConnectableDeviceListener>() {
+            @Override
+            public void run(@NonNull ConnectableDeviceListener listener) {
+                listener.onPosition(device, position);
+            }
+        });
     }
 
-    private void notifyPlaybackDuration(RemoteDevice device, Long duration) {
+    private void notifyPlaybackDuration(final RemoteDevice device, final Long duration) {
         Logger.vv(TAG, "notifyPlaybackDuration: duration=" + duration);
         device.getCsdkListener().onDuration(device, duration);
-        for(ConnectableDeviceListener listener: mPlaybackStatusListeners) {
-            listener.onDuration(device, duration);
-        }
+        mPlaybackStatusListeners.forEach(new ListenerSet.Action<ConnectableDeviceListener>() {
+            @Override
+            public void run(@NonNull ConnectableDeviceListener listener) {
+                listener.onDuration(device, duration);
+            }
+        });
     }
 
-    private void notifyPlaybackVolume(RemoteDevice device, float volume) {
+    private void notifyPlaybackVolume(final RemoteDevice device, final float volume) {
         Logger.vv(TAG, "notifyPlaybackVolume: volume=" + volume);
         device.getCsdkListener().onVolume(device, volume);
-        for(ConnectableDeviceListener listener: mPlaybackStatusListeners) {
-            listener.onVolume(device, volume);
-        }
+        mPlaybackStatusListeners.forEach(new ListenerSet.Action<ConnectableDeviceListener>() {
+            @Override
+            public void run(@NonNull ConnectableDeviceListener listener) {
+                listener.onVolume(device, volume);
+            }
+        });
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // playback state callbacks
     public void addPlaybackStateCallback(PlaybackStateCallback cb) {
         mPlaybackStateCallbacks.add(cb);
+        updateEventSubscription();
     }
 
     public void removePlaybackStateCallback(PlaybackStateCallback cb) {
         mPlaybackStateCallbacks.remove(cb);
+        updateEventSubscription();
+    }
+
+    /**
+     * Add listener for events from engine session event url.
+     *
+     * @param eventName Name of events to receive, null for all events
+     */
+    public void addEngineEventListener(@Nullable String eventName, @NonNull EngineEventListener listener) {
+        mEventClient.addListener(eventName, listener);
+    }
+
+    public void removeEngineEventListener(@NonNull EngineEventListener listener) {
+        mEventClient.removeListener(listener);
     }
 
     private void notifyPlaybackStateStart(@Nullable EngineSession session) {
@@ -600,36 +988,6 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         }
     }
 
-    private CastResultListener obtainCastResultListener(int hash) {
-        return mCastResultListeners.get(hash);
-    }
-
-    private int hashCastResultListener(@NonNull CastResultListener listener) {
-        int hash = listener.hashCode();
-        mCastResultListeners.put(hash, listener);
-        return hash;
-    }
-
-    private void releaseCastResultListener(int hash) {
-        mCastResultListeners.remove(hash);
-    }
-
-    ////////////////////////////////////////////////////////////////////////////////////////////////
-    // engine session start listeners
-    private EngineSessionStartListener obtainEngineSessionStartListener(int hash) {
-        return mEngineSessionStartListeners.get(hash);
-    }
-
-    private int hashEngineSessionStartListener(@NonNull EngineSessionStartListener listener) {
-        int hash = listener.hashCode();
-        mEngineSessionStartListeners.put(hash, listener);
-        return hash;
-    }
-
-    private void releaseEngineSessionStartListener(int hash) {
-        mEngineSessionStartListeners.remove(hash);
-    }
-
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // engine client callbacks
     @Override
@@ -639,37 +997,45 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         if(mEngineApi == null) {
             mEngineApi = new EngineApi(service);
         }
+        StartupTimeline.getInstance().mark(StartupTimeline.PHASE_ENGINE_CONNECTED);
 
+        EngineGate.getInstance().setConnected();
         notifyEngineConnected(mEngineApi);
     }
 
     @Override
     public void onFailed() {
         Log.d(TAG, "onFailed");
+        EngineGate.getInstance().setStopped();
         notifyEngineFailed();
     }
 
     @Override
     public void onDisconnected() {
         Log.d(TAG, "onDisconnected");
+        mSettings.invalidate();
+        mSettings.cancelFetch();
         notifyEngineDisconnected();
     }
 
     @Override
     public void onUnpacking() {
         Log.d(TAG, "onUnpacking");
+        EngineGate.getInstance().setStarting();
         notifyEngineUnpacking();
     }
 
     @Override
     public void onStarting() {
         Log.d(TAG, "onStarting");
+        EngineGate.getInstance().setStarting();
         notifyEngineStarting();
     }
 
     @Override
     public void onStopped() {
         Log.d(TAG, "onStopped");
+        EngineGate.getInstance().setStopped();
         notifyEngineStopped();
         disconnectEngineService();
     }
@@ -684,6 +1050,7 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
 
     @Override
     public void onSettingsUpdated() {
+        mSettings.invalidate();
     }
 
     @Override
@@ -699,6 +1066,7 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     // service client methods
     private void initServiceClient() throws ServiceClient.ServiceMissingException {
         if(mEngineServiceClient == null) {
+            StartupTimeline.getInstance().mark(StartupTimeline.PHASE_ENGINE_BIND);
             mEngineServiceClient = new ServiceClient("AceStreamManager", this, this, false);
             mEngineServiceClient.bind();
         }
@@ -726,13 +1094,24 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     }
 
     public void getPreferences(@NonNull org.acestream.engine.controller.Callback<AceStreamPreferences> callback) {
+        AceStreamPreferences preferences = mSettings.getIfValid();
+        if(preferences != null) {
+            Logger.vv(TAG, "getPreferences: cached: version=" + mSettings.getVersion());
+            callback.onSuccess(preferences);
+            return;
+        }
+
         Log.d(TAG, "getPreferences");
         mOnEngineSettingsQueue.add(callback);
-        sendMessage(obtainMessage(MSG_GET_PREFERENCES));
+        if(mSettings.beginFetch()) {
+            sendMessage(obtainMessage(MSG_GET_PREFERENCES));
+        }
     }
 
     public void setPreferences(@NonNull Bundle preferences) {
         Log.d(TAG, "setPreferences");
+        // Apply locally right away, engine will send updated settings
+        mSettings.patch(preferences);
         Message msg = obtainMessage(MSG_SET_PREFERENCES);
         Bundle data = new Bundle(1);
         data.putBundle(MSG_PARAM_PREFERENCES, preferences);
@@ -745,15 +1124,12 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         Bundle prefs = new Bundle(1);
         if(value == null) {
             prefs.putString(key, null);
-            mAceStreamPreferences.putString(key, null);
         }
         else if(value instanceof String) {
             prefs.putString(key, (String) value);
-            mAceStreamPreferences.putString(key, (String) value);
         }
         else if(value instanceof Boolean) {
             prefs.putBoolean(key, (boolean) value);
-            mAceStreamPreferences.putBoolean(key, (boolean) value);
         }
         else {
             throw new IllegalStateException("String or boolean expected: value=" + value);
@@ -778,10 +1154,13 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
 
     private void setEngineSession(@Nullable EngineSession session) {
         mEngineSession = session;
+        mStatPoller.setSession(session);
+        mEventClient.setSession(session);
     }
 
     private void notifyServiceReady() {
         Logger.v(TAG, "notifyServiceReady: queue=" + mOnReadyQueue.size());
+        StartupTimeline.getInstance().mark(StartupTimeline.PHASE_SERVICE_READY);
         mReady = true;
         for(Runnable runnable: mOnReadyQueue) {
             runnable.run();
@@ -896,12 +1275,6 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
             throw new IllegalStateException("missing uri");
         }
 
-        if(mEngineApi == null) {
-            Log.e(TAG, "getMediaFileAsync: missing engine api");
-            callback.onError("Engine is not connected");
-            return;
-        }
-
         int index;
         try {
             index = Integer.parseInt(MiscUtils.getQueryParameter(media.getUri(), "index"));
@@ -911,7 +1284,35 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         }
         final int fileIndex = index;
 
-        mEngineApi.getMediaFiles(descriptor, new org.acestream.engine.controller.Callback<MediaFilesResponse>() {
+        // Answer from persistent index and refresh it in background.
+        // Index has no transport file data, so it's used only when data is known locally.
+        String transportFileData = null;
+        if(descriptor.hasTransportFileData()) {
+            transportFileData = descriptor.getTransportFileData();
+        }
+        else if(descriptor.getCanonicalKey() != null) {
+            transportFileData = AceStream.getTransportFileFromCache(descriptor.getDescriptorString());
+        }
+        MediaFilesResponse indexed = (transportFileData == null) ? null : MediaFilesIndex.getInstance().get(descriptor);
+        MediaFilesResponse.MediaFile indexedFile = (indexed == null) ? null : indexed.getMediaFileByIndex(fileIndex);
+        if(indexedFile != null) {
+            Logger.v(TAG, "getMediaFileAsync: got from index: descriptor=" + descriptor);
+            media.setLive(indexedFile.isLive());
+            media.setP2PInfo(indexedFile.infohash, indexedFile.index);
+            callback.onSuccess(new Pair<>(transportFileData, indexedFile));
+            if(mEngineApi != null) {
+                mEngineApi.getMediaFiles(descriptor, MediaFilesIndex.REFRESH_CALLBACK);
+            }
+            return;
+        }
+
+        if(mEngineApi == null) {
+            Log.e(TAG, "getMediaFileAsync: missing engine api");
+            callback.onError("Engine is not connected");
+            return;
+        }
+
+        mEngineApi.getMediaFiles(media, descriptor, new org.acestream.engine.controller.Callback<MediaFilesResponse>() {
             @Override
             public void onSuccess(MediaFilesResponse result) {
                 for(MediaFilesResponse.MediaFile mf: result.files) {
@@ -932,11 +1333,39 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         });
     }
 
+    /**
+     * @return number of high-frequency service events (status, position, prebuffering) received
+     */
+    public long getConflatableEventCount() {
+        return mClientMessengerHandler.mConflater.getOfferedCount();
+    }
+
+    /**
+     * @return number of high-frequency service events skipped because newer value arrived
+     */
+    public long getConflatedEventCount() {
+        return mClientMessengerHandler.mConflater.getConflatedCount();
+    }
+
+    /**
+     * Tracer for messages exchanged with PlaybackManager. Disabled by default.
+     */
+    @NonNull
+    public IpcTracer getIpcTracer() {
+        return mIpcTracer;
+    }
+
     public Collection<RemoteDevice> getRemoteDevices() {
-        return mRemoteDevices.values();
+        return mRemoteDevices.getAll();
     }
 
-    public void startCastDevice(String deviceId, boolean restartFromLastPosition, long startFrom,
+    /**
+     * @param listener Result listener, when null current cast result listener is used
+     * @return Handle of the call which can be cancelled to stop listening for results, or null
+     * if there is no listener
+     */
+    @Nullable
+    public IpcCallRegistry.Call<CastResultListener> startCastDevice(String deviceId, boolean restartFromLastPosition, long startFrom,
                                 @Nullable CastResultListener listener) {
         Logger.vv(TAG, "startCastDevice: deviceId=" + deviceId + " restart=" + restartFromLastPosition + " startFrom=" + startFrom);
         Message msg = obtainMessage(MSG_START_CAST_DEVICE);
@@ -947,11 +1376,14 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         if(listener == null) {
             listener = mCastResultListener;
         }
+        IpcCallRegistry.Call<CastResultListener> call = null;
         if(listener != null) {
-            data.putInt(MSG_PARAM_CAST_RESULT_LISTENER, hashCastResultListener(listener));
+            call = mCastResultCalls.register(listener);
+            data.putInt(MSG_PARAM_CAST_RESULT_LISTENER, call.getId());
         }
         msg.setData(data);
         sendMessage(msg);
+        return call;
     }
 
     public void disconnectDevice() {
@@ -970,22 +1402,12 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
 
     @Nullable
     public RemoteDevice findRemoteDevice(SelectedPlayer player) {
-        for(RemoteDevice device: mRemoteDevices.values()) {
-            if(device.equals(player)) {
-                return device;
-            }
-        }
-        return null;
+        return mRemoteDevices.find(player);
     }
 
     @Nullable
     public RemoteDevice findRemoteDeviceByIp(String ip, int type) {
-        for(RemoteDevice device: mRemoteDevices.values()) {
-            if(device.getDeviceType() == type && TextUtils.equals(ip, device.getIpAddress())) {
-                return device;
-            }
-        }
-        return null;
+        return mRemoteDevices.findByIp(ip, type);
     }
 
     @Nullable
@@ -1010,36 +1432,40 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         sendMessage(obtainMessage(MSG_CHECK_PENDING_NOTIFICATIONS));
     }
 
+    /**
+     * @return client session id, which is set in {@link EngineSession#clientSessionId} of the
+     *         session passed to listener. -1 if listener is null.
+     */
     public int initEngineSession(PlaybackData playbackData, @Nullable EngineSessionStartListener listener) {
         Logger.vv(TAG, "initEngineSession: playbackData=" + playbackData);
+        int sessionId = -1;
         Message msg = obtainMessage(MSG_INIT_ENGINE_SESSION);
-        Bundle data = new Bundle(2);
+        Bundle data = new Bundle(3);
         data.putString(MSG_PARAM_PLAYBACK_DATA, playbackData.toJson());
         if(listener != null) {
-            data.putInt(MSG_PARAM_ENGINE_SESSION_START_LISTENER, hashEngineSessionStartListener(listener));
+            sessionId = mEngineSessionStartCalls.register(listener).getId();
+            data.putInt(MSG_PARAM_ENGINE_SESSION_START_LISTENER, sessionId);
+            data.putInt(MSG_PARAM_CLIENT_SESSION_ID, sessionId);
         }
         msg.setData(data);
         sendMessage(msg);
 
-        return -1;
+        return sessionId;
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // remote devices
-    private RemoteDevice obtainRemoteDevice(String json) {
-        RemoteDevice device = RemoteDevice.fromJson(this, json);
-        RemoteDevice cached = mRemoteDevices.get(device.getId());
-        if(cached == null) {
-            mRemoteDevices.put(device.getId(), device);
-            return device;
-        }
-
-        return cached;
+    // Message contains device descriptor, handle or both
+    private RemoteDevice obtainRemoteDevice(@NonNull Bundle data) {
+        return mRemoteDevices.obtain(
+                this,
+                data.getInt(MSG_PARAM_REMOTE_DEVICE_HANDLE, RemoteDeviceRegistry.NO_HANDLE),
+                data.getString(MSG_PARAM_REMOTE_DEVICE));
     }
 
     private void removeRemoteDevice(@NonNull RemoteDevice device) {
         Logger.vv(TAG, "removeRemoteDevice: device=" + device);
-        mRemoteDevices.remove(device.getId());
+        mRemoteDevices.remove(device);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -1125,12 +1551,17 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     public final static int MSG_CHECK_PENDING_NOTIFICATIONS = 1030;
     public final static int MSG_SHOW_BONUS_ADS = 1031;
     public final static int MSG_SET_ENGINE_STATUS_LISTENERS = 1032;
+    public final static int MSG_SET_EVENT_SUBSCRIPTION = 1033;
 
     // Remote messages params
     public final static String MSG_PARAM_AUTH_DATA = "auth_data";
     public final static String MSG_PARAM_ENGINE_STATUS = "engine_status";
+    public final static String MSG_PARAM_ENGINE_STATUS_PARCEL = "engine_status_parcel";
+    public final static String MSG_PARAM_PARCEL_VERSION = "parcel_version";
     public final static String MSG_PARAM_REMOTE_DEVICE = "remove_device";
     public final static String MSG_PARAM_REMOTE_DEVICE_ID = "remove_device_id";
+    public final static String MSG_PARAM_REMOTE_DEVICE_HANDLE = "remote_device_handle";
+    public final static String MSG_PARAM_DEVICE_HANDLES = "device_handles";
     public final static String MSG_PARAM_IS_ACECAST = "is_acecast";
     public final static String MSG_PARAM_JSON_RPC_MESSAGE = "json_rpc_message";
     public final static String MSG_PARAM_CLEAN_SHUTDOWN = "clean_shutdown";
@@ -1160,19 +1591,146 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     public final static String MSG_PARAM_STREAM_INDEX = "stream_index";
     public final static String MSG_PARAM_DISCONNECT_DEVICE = "disconnect_device";
     public final static String MSG_PARAM_ENGINE_SESSION_START_LISTENER = "engine_session_start_listener";
+    public final static String MSG_PARAM_CLIENT_SESSION_ID = "client_session_id";
     public final static String MSG_PARAM_PREFERENCES = "preferences";
     public final static String MSG_PARAM_FROM_USER = "from_user";
     public final static String MSG_PARAM_AVAILABLE = "available";
     public final static String MSG_PARAM_COUNT = "count";
+    public final static String MSG_PARAM_EVENT_MASK = "event_mask";
+    public final static String MSG_PARAM_DEVICE_FILTER = "device_filter";
 
     // Handle messages from remote PlaybackManager service
     @SuppressLint("HandlerLeak")
     class ClientMessengerHandler extends Handler {
+        // Messages are always handled on the main thread
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                routeRemoteMessage(msg.what, msg.getData(), msg.obj);
+            }
+        };
+
+        // High-frequency updates: only the latest value per key is handled
+        final ConflatingDispatcher mConflater = new ConflatingDispatcher(mMainHandler, new ConflatingDispatcher.Target() {
+            @Override
+            public void dispatch(int what, @NonNull Bundle data, @Nullable Object payload) {
+                traceRemoteMessage(what, data, payload);
+            }
+        });
+
+        ClientMessengerHandler(Looper looper) {
+            super(looper);
+        }
+
         @Override
         public void handleMessage(Message msg) {
+            Bundle d = msg.getData();
+            // Needed to unparcel SDK classes
+            d.setClassLoader(AceStreamManager.class.getClassLoader());
+
+            if(getLooper() == Looper.getMainLooper()) {
+                routeRemoteMessage(msg.what, d, null);
+                return;
+            }
+
+            // IPC thread: only decode heavy payloads here. Messages are conflated and handled
+            // on the main thread in the order they were sent.
+            Object payload;
             try {
-                Bundle d = msg.getData();
-                switch (msg.what) {
+                payload = decodePayload(msg.what, d);
+            }
+            catch(Throwable e) {
+                Log.e(TAG, "handleMessage: failed to decode payload: what=" + msg.what, e);
+                return;
+            }
+
+            Message mainMsg = mMainHandler.obtainMessage(msg.what, payload);
+            mainMsg.setData(d);
+            mMainHandler.sendMessage(mainMsg);
+        }
+
+        @MainThread
+        private void routeRemoteMessage(int what, @NonNull Bundle d, @Nullable Object payload) {
+            String key = getConflationKey(what, d);
+            if(key != null) {
+                mConflater.offer(key, what, d, payload);
+                return;
+            }
+
+            // Keep order: pending updates are handled before this message
+            mConflater.flush();
+            traceRemoteMessage(what, d, payload);
+        }
+
+        @MainThread
+        private void traceRemoteMessage(int what, @NonNull Bundle d, @Nullable Object payload) {
+            long startedAt = mIpcTracer.onHandleStart();
+            handleRemoteMessage(what, d, payload);
+            mIpcTracer.onHandled(what, d, startedAt);
+        }
+
+        /**
+         * @return decoded payload of message or null if message has no heavy payload
+         */
+        @Nullable
+        private Object decodePayload(int what, @NonNull Bundle d) throws JSONException {
+            switch (what) {
+                case MSG_ENGINE_STATUS:
+                    return decodeEngineStatus(d);
+                case MSG_DEVICE_ON_MESSAGE:
+                    return JsonRpcMessage.fromString(d.getString(MSG_PARAM_JSON_RPC_MESSAGE));
+                default:
+                    return null;
+            }
+        }
+
+        private EngineStatus decodeEngineStatus(@NonNull Bundle d) {
+            EngineStatus status = d.getParcelable(MSG_PARAM_ENGINE_STATUS_PARCEL);
+            if(status == null) {
+                // old service
+                status = EngineStatus.fromJson(d.getString(MSG_PARAM_ENGINE_STATUS));
+            }
+            return status;
+        }
+
+        private void handleEngineStatus(@NonNull Bundle d, @Nullable EngineStatus status) {
+            RemoteDevice device = null;
+            if(d.containsKey(MSG_PARAM_REMOTE_DEVICE) || d.containsKey(MSG_PARAM_REMOTE_DEVICE_HANDLE)) {
+                device = obtainRemoteDevice(d);
+            }
+            if(status == null) {
+                status = decodeEngineStatus(d);
+            }
+            notifyEngineStatus(status, device);
+        }
+
+        @Nullable
+        private String getConflationKey(int what, @NonNull Bundle d) {
+            switch(what) {
+                case MSG_ENGINE_STATUS:
+                case MSG_DEVICE_ON_PLAYBACK_POSITION:
+                    if(d.containsKey(MSG_PARAM_REMOTE_DEVICE_HANDLE)) {
+                        if(d.containsKey(MSG_PARAM_REMOTE_DEVICE)) {
+                            // Message registers the handle, it must not be replaced by
+                            // a handle-only message
+                            return null;
+                        }
+                        return what + ":" + d.getInt(MSG_PARAM_REMOTE_DEVICE_HANDLE);
+                    }
+                    return what + ":" + d.getString(MSG_PARAM_REMOTE_DEVICE);
+                case MSG_PLAYBACK_STATE_PREBUFFERING:
+                    return String.valueOf(what);
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @param payload Payload decoded on IPC thread or null to decode it here
+         */
+        private void handleRemoteMessage(int what, @NonNull Bundle d, @Nullable Object payload) {
+            try {
+                switch (what) {
                     case MSG_SERVICE_READY:
                         notifyServiceReady();
                         break;
@@ -1186,70 +1744,70 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
                         notifyEngineSettingsUpdated(
                                 AceStreamPreferences.fromBundle(d.getBundle(MSG_PARAM_PREFERENCES)));
                         break;
-                    case MSG_ENGINE_STATUS: {
-                        RemoteDevice device = null;
-                        if(d.containsKey(MSG_PARAM_REMOTE_DEVICE)) {
-                            device = obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE));
-                        }
-                        notifyEngineStatus(
-                                EngineStatus.fromJson(d.getString(MSG_PARAM_ENGINE_STATUS)),
-                                device);
+                    case MSG_ENGINE_STATUS:
+                        handleEngineStatus(d, (EngineStatus) payload);
                         break;
-                    }
                     case MSG_DEVICE_ADDED:
-                        notifyDeviceAdded(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                        notifyDeviceAdded(obtainRemoteDevice(d));
                         break;
                     case MSG_DEVICE_REMOVED:
-                        notifyDeviceRemoved(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                        notifyDeviceRemoved(obtainRemoteDevice(d));
                         break;
                     case MSG_DEVICE_CHANGED:
-                        notifyCurrentDeviceChanged(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                        notifyCurrentDeviceChanged(obtainRemoteDevice(d));
                         break;
-                    case MSG_DEVICE_ON_MESSAGE:
+                    case MSG_DEVICE_ON_MESSAGE: {
+                        RemoteDevice device = obtainRemoteDevice(d);
+                        if(device == null) {
+                            break;
+                        }
                         notifyRemoteDeviceMessage(
-                                obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)),
-                                JsonRpcMessage.fromString(d.getString(MSG_PARAM_JSON_RPC_MESSAGE)));
+                                device,
+                                payload != null
+                                        ? (JsonRpcMessage) payload
+                                        : JsonRpcMessage.fromString(d.getString(MSG_PARAM_JSON_RPC_MESSAGE)));
                         break;
+                    }
                     case MSG_DEVICE_ON_CONNECTED:
-                        notifyRemoteDeviceConnected(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                        notifyRemoteDeviceConnected(obtainRemoteDevice(d));
                         break;
                     case MSG_DEVICE_ON_DISCONNECTED:
                         notifyRemoteDeviceDisconnected(
-                                obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)),
+                                obtainRemoteDevice(d),
                                 d.getBoolean(MSG_PARAM_CLEAN_SHUTDOWN));
                         break;
                     case MSG_DEVICE_ON_AVAILABLE:
-                        notifyAvailable(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                        notifyAvailable(obtainRemoteDevice(d));
                         break;
                     case MSG_DEVICE_ON_UNAVAILABLE:
-                        notifyUnavailable(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                        notifyUnavailable(obtainRemoteDevice(d));
                         break;
                     case MSG_DEVICE_ON_PING_FAILED:
-                        notifyPingFailed(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                        notifyPingFailed(obtainRemoteDevice(d));
                         break;
                     case MSG_DEVICE_ON_OUTPUT_FORMAT_CHANGED:
                         notifyOutputFormatChanged(
-                                obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)),
+                                obtainRemoteDevice(d),
                                 d.getString(MSG_PARAM_OUTPUT_FORMAT));
                         break;
                     case MSG_DEVICE_ON_PLAYBACK_STATUS:
                         notifyPlaybackStatus(
-                                obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)),
+                                obtainRemoteDevice(d),
                                 d.getInt(MSG_PARAM_PLAYBACK_STATUS));
                         break;
                     case MSG_DEVICE_ON_PLAYBACK_POSITION:
                         notifyPlaybackPosition(
-                                obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)),
+                                obtainRemoteDevice(d),
                                 d.getLong(MSG_PARAM_POSITION));
                         break;
                     case MSG_DEVICE_ON_PLAYBACK_DURATION:
                         notifyPlaybackDuration(
-                                obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)),
+                                obtainRemoteDevice(d),
                                 d.getLong(MSG_PARAM_DURATION));
                         break;
                     case MSG_DEVICE_ON_PLAYBACK_VOLUME:
                         notifyPlaybackVolume(
-                                obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)),
+                                obtainRemoteDevice(d),
                                 d.getFloat(MSG_PARAM_VOLUME));
                         break;
                     case MSG_PLAYBACK_STATE_START:
@@ -1267,11 +1825,12 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
                         notifyPlaybackStateStop();
                         break;
                     case MSG_CAST_RESULT_LISTENER_SUCCESS: {
-                        CastResultListener listener = obtainCastResultListener(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
+                        // Cast is running: keep the call for device events until error or cancel
+                        CastResultListener listener = mCastResultCalls.acknowledge(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
                         if (listener != null) {
                             if (d.containsKey(MSG_PARAM_REMOTE_DEVICE)) {
                                 listener.onSuccess(
-                                        obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)),
+                                        obtainRemoteDevice(d),
                                         SelectedPlayer.fromJson(d.getString(MSG_PARAM_SELECTED_PLAYER)));
                             } else {
                                 listener.onSuccess();
@@ -1280,46 +1839,48 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
                         break;
                     }
                     case MSG_CAST_RESULT_LISTENER_ERROR: {
-                        CastResultListener listener = obtainCastResultListener(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
+                        CastResultListener listener = mCastResultCalls.release(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
                         if (listener != null)
                             listener.onError(d.getString(MSG_PARAM_ERROR));
                         break;
                     }
                     case MSG_CAST_RESULT_LISTENER_DEVICE_CONNECTED: {
-                        CastResultListener listener = obtainCastResultListener(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
+                        CastResultListener listener = mCastResultCalls.get(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
                         if (listener != null)
-                            listener.onDeviceConnected(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                            listener.onDeviceConnected(obtainRemoteDevice(d));
                         break;
                     }
                     case MSG_CAST_RESULT_LISTENER_DEVICE_DISCONNECTED: {
-                        CastResultListener listener = obtainCastResultListener(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
+                        // Cast is over
+                        CastResultListener listener = mCastResultCalls.release(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
                         if (listener != null)
-                            listener.onDeviceDisconnected(obtainRemoteDevice(d.getString(MSG_PARAM_REMOTE_DEVICE)));
+                            listener.onDeviceDisconnected(obtainRemoteDevice(d));
                         break;
                     }
                     case MSG_CAST_RESULT_LISTENER_CANCEL: {
-                        CastResultListener listener = obtainCastResultListener(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
+                        CastResultListener listener = mCastResultCalls.release(d.getInt(MSG_PARAM_CAST_RESULT_LISTENER));
                         if (listener != null)
                             listener.onCancel();
                         break;
                     }
                     case MSG_ENGINE_SESSION_START_LISTENER_SUCCESS: {
-                        int hash = d.getInt(MSG_PARAM_ENGINE_SESSION_START_LISTENER);
-                        EngineSessionStartListener listener = obtainEngineSessionStartListener(hash);
+                        int sessionId = d.getInt(MSG_PARAM_ENGINE_SESSION_START_LISTENER);
+                        EngineSessionStartListener listener = mEngineSessionStartCalls.release(sessionId);
                         if (listener != null) {
-                            listener.onSuccess(EngineSession.fromJson(d.getString(MSG_PARAM_ENGINE_SESSION)));
-                            // release because listener is used only once
-                            releaseEngineSessionStartListener(hash);
+                            EngineSession session = EngineSession.fromJson(d.getString(MSG_PARAM_ENGINE_SESSION));
+                            if(session != null && session.clientSessionId == -1) {
+                                // old service doesn't know client session ids
+                                session.clientSessionId = sessionId;
+                            }
+                            listener.onSuccess(session);
                         }
                         break;
                     }
                     case MSG_ENGINE_SESSION_START_LISTENER_ERROR: {
-                        int hash = d.getInt(MSG_PARAM_ENGINE_SESSION_START_LISTENER);
-                        EngineSessionStartListener listener = obtainEngineSessionStartListener(hash);
+                        EngineSessionStartListener listener = mEngineSessionStartCalls.release(
+                                d.getInt(MSG_PARAM_ENGINE_SESSION_START_LISTENER));
                         if (listener != null) {
                             listener.onError(d.getString(MSG_PARAM_ERROR));
-                            // release because listener is used only once
-                            releaseEngineSessionStartListener(hash);
                         }
                         break;
                     }
@@ -1334,7 +1895,7 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
                         setEngineSession(null);
                         break;
                     default:
-                        super.handleMessage(msg);
+                        Log.w(TAG, "handleMessage: unknown message: what=" + what);
                 }
             }
             catch(Throwable e) {
@@ -1498,9 +2059,17 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
             void onDisconnected();
         }
 
+        /**
+         * Optional listener: service cannot be bound (e.g. AceStream is not installed).
+         */
+        public interface ConnectFailedListener {
+            void onConnectFailed();
+        }
+
         private boolean mBound = false;
         private boolean mConnected = false;
         private final Callback mCallback;
+        private ConnectFailedListener mConnectFailedListener = null;
         private final Context mContext;
 
         private final ServiceConnection mServiceConnection = new ServiceConnection() {
@@ -1534,6 +2103,10 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
             mCallback = callback;
         }
 
+        public void setConnectFailedListener(@Nullable ConnectFailedListener listener) {
+            mConnectFailedListener = listener;
+        }
+
         @MainThread
         public boolean connect() {
             if(!Workers.isOnMainThread()) {
@@ -1560,6 +2133,10 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
                 Log.e(TAG, "Unexpected error while starting service", e);
             }
 
+            if(!mBound && mConnectFailedListener != null) {
+                mConnectFailedListener.onConnectFailed();
+            }
+
             return true;
         }
 
@@ -1621,7 +2198,9 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
             getMediaFileAsync(descriptor, media, new org.acestream.engine.controller.Callback<Pair<String, MediaFilesResponse.MediaFile>>() {
                 @Override
                 public void onSuccess(Pair<String, MediaFilesResponse.MediaFile> result) {
-                    fDescriptor.setTransportFileData(result.first);
+                    if(result.first != null) {
+                        fDescriptor.setTransportFileData(result.first);
+                    }
                     startPlayer(context, player, fDescriptor, result.second, streamIndex, listener, forceResume, savedTime);
                 }
 
@@ -1762,7 +2341,7 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         data.putString(MSG_PARAM_PLAYBACK_DATA, playbackData.toJson());
         data.putString(MSG_PARAM_REMOTE_DEVICE_ID, deviceId);
         data.putLong(MSG_PARAM_SAVED_TIME, savedTime);
-        data.putInt(MSG_PARAM_CAST_RESULT_LISTENER, hashCastResultListener(listener));
+        data.putInt(MSG_PARAM_CAST_RESULT_LISTENER, mCastResultCalls.register(listener).getId());
         msg.setData(data);
         sendMessage(msg);
     }
@@ -1773,7 +2352,7 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
                 // cancel prev listener
                 Log.d(TAG, "setCastResultListener: cancel prev listener: prev=" + mCastResultListener + " new=" + listener);
                 mCastResultListener.onCancel();
-                releaseCastResultListener(mCastResultListener.hashCode());
+                mCastResultCalls.releaseAll(mCastResultListener);
             }
 
             mCastResultListener = listener;
@@ -1916,50 +2495,35 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     }
 
     public String getLiveOutputFormat() {
-        String value = (mAceStreamPreferences != null)
-                ? mAceStreamPreferences.getString("output_format_live")
-                : null;
+        String value = mSettings.getString("output_format_live", null);
         return MiscUtils.ifNull(value, Constants.PREFS_DEFAULT_OUTPUT_FORMAT_LIVE);
     }
 
     public String getVodOutputFormat() {
-        String value = (mAceStreamPreferences != null)
-                ? mAceStreamPreferences.getString("output_format_vod")
-                : null;
+        String value = mSettings.getString("output_format_vod", null);
         return MiscUtils.ifNull(value, Constants.PREFS_DEFAULT_OUTPUT_FORMAT_VOD);
     }
 
     public boolean getTranscodeAudio() {
-        return (mAceStreamPreferences != null)
-                ? mAceStreamPreferences.getBoolean("transcode_audio", Constants.PREFS_DEFAULT_TRANSCODE_AUDIO)
-                : Constants.PREFS_DEFAULT_TRANSCODE_AUDIO;
+        return mSettings.getBoolean("transcode_audio", Constants.PREFS_DEFAULT_TRANSCODE_AUDIO);
     }
 
     public boolean getTranscodeAC3() {
-        return (mAceStreamPreferences != null)
-                ? mAceStreamPreferences.getBoolean("transcode_ac3", Constants.PREFS_DEFAULT_TRANSCODE_AC3)
-                : Constants.PREFS_DEFAULT_TRANSCODE_AC3;
+        return mSettings.getBoolean("transcode_ac3", Constants.PREFS_DEFAULT_TRANSCODE_AC3);
     }
 
     public boolean showDebugInfo() {
-        return mAceStreamPreferences != null && mAceStreamPreferences.getBoolean(PREF_KEY_SHOW_DEBUG_INFO, false);
+        return mSettings.getBoolean(PREF_KEY_SHOW_DEBUG_INFO, false);
     }
 
     public void forgetSelectedPlayer() {
         Logger.vv(TAG, "forgetSelectedPlayer");
-        if(mAceStreamPreferences != null) {
-            mAceStreamPreferences.putString(Constants.PREF_KEY_SELECTED_PLAYER, null);
-        }
+        mSettings.patch(Constants.PREF_KEY_SELECTED_PLAYER, null);
         sendMessage(obtainMessage(MSG_FORGET_SELECTED_PLAYER));
     }
 
     public SelectedPlayer getSelectedPlayer() {
-        if(mAceStreamPreferences == null) {
-            Log.e(TAG, "getSelectedPlayer: missing manager");
-            return null;
-        }
-
-        String data = mAceStreamPreferences.getString(Constants.PREF_KEY_SELECTED_PLAYER, null);
+        String data = mSettings.getString(Constants.PREF_KEY_SELECTED_PLAYER, null);
         if(data == null) {
             Log.v(TAG, "getSelectedPlayer: no data in prefs");
             return null;
@@ -1985,9 +2549,7 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
         }
 
         // save locally
-        if(mAceStreamPreferences != null) {
-            mAceStreamPreferences.putString(Constants.PREF_KEY_SELECTED_PLAYER, player.toJson());
-        }
+        mSettings.patch(Constants.PREF_KEY_SELECTED_PLAYER, player.toJson());
 
         // send to remote service
         Message msg = obtainMessage(MSG_SAVE_SELECTED_PLAYER);
@@ -2031,8 +2593,7 @@ public class AceStreamManager extends Service implements IAceStreamManager, Serv
     }
 
     public boolean isMobileNetworkingEnabled() {
-        return (mAceStreamPreferences != null)
-                && mAceStreamPreferences.getBoolean("mobile_network_available", false);
+        return mSettings.getBoolean("mobile_network_available", false);
     }
 
     public void setMobileNetworkingEnabled(boolean value) {
@@ -1,8 +1,14 @@
 package org.acestream.sdk;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.text.TextUtils;
 
-public class ContentStream {
+import org.acestream.sdk.utils.ParcelUtils;
+
+public class ContentStream implements Parcelable {
+    private final static int PARCEL_VERSION = 1;
+
     public int index;
     public String name;
     public int quality;
@@ -43,6 +49,56 @@ public class ContentStream {
         return "Stream " + index;
     }
 
+    public ContentStream() {
+    }
+
+    private ContentStream(Parcel in) {
+        int[] end = new int[1];
+        ParcelUtils.readBlock(in, end);
+        index = ParcelUtils.readInt(in, end[0], index);
+        name = ParcelUtils.readString(in, end[0], name);
+        quality = ParcelUtils.readInt(in, end[0], quality);
+        bitrate = ParcelUtils.readInt(in, end[0], bitrate);
+        streamType = ParcelUtils.readInt(in, end[0], streamType);
+        contentType = ParcelUtils.readInt(in, end[0], contentType);
+        codecs = ParcelUtils.readString(in, end[0], codecs);
+        bandwidth = ParcelUtils.readInt(in, end[0], bandwidth);
+        resolution = ParcelUtils.readString(in, end[0], resolution);
+        ParcelUtils.skipBlock(in, end[0]);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        int start = ParcelUtils.beginBlock(dest, PARCEL_VERSION);
+        dest.writeInt(index);
+        dest.writeString(name);
+        dest.writeInt(quality);
+        dest.writeInt(bitrate);
+        dest.writeInt(streamType);
+        dest.writeInt(contentType);
+        dest.writeString(codecs);
+        dest.writeInt(bandwidth);
+        dest.writeString(resolution);
+        ParcelUtils.endBlock(dest, start);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<ContentStream> CREATOR = new Creator<ContentStream>() {
+        @Override
+        public ContentStream createFromParcel(Parcel in) {
+            return new ContentStream(in);
+        }
+
+        @Override
+        public ContentStream[] newArray(int size) {
+            return new ContentStream[size];
+        }
+    };
+
     @Override
     public String toString() {
         return "ContentStream(name=" + name + " bandwidth=" + bandwidth + ")";
@@ -0,0 +1,106 @@
+package org.acestream.sdk;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Event received from engine session event url.
+ */
+@SuppressWarnings("WeakerAccess")
+public class EngineEvent {
+    private final String mName;
+    private final JsonObject mParams;
+    private final String mPlaybackSessionId;
+
+    public EngineEvent(@NonNull String name, @NonNull JsonObject params, @Nullable String playbackSessionId) {
+        mName = name;
+        mParams = params;
+        mPlaybackSessionId = playbackSessionId;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    @Nullable
+    public String getPlaybackSessionId() {
+        return mPlaybackSessionId;
+    }
+
+    public boolean has(@NonNull String key) {
+        return mParams.has(key);
+    }
+
+    @Nullable
+    public String getString(@NonNull String key) {
+        JsonPrimitive value = getPrimitive(key);
+        return value == null ? null : value.getAsString();
+    }
+
+    public int getInt(@NonNull String key, int defaultValue) {
+        JsonPrimitive value = getPrimitive(key);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            return value.getAsInt();
+        }
+        catch(NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public long getLong(@NonNull String key, long defaultValue) {
+        JsonPrimitive value = getPrimitive(key);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            return value.getAsLong();
+        }
+        catch(NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+        JsonPrimitive value = getPrimitive(key);
+        if(value == null) {
+            return defaultValue;
+        }
+        if(value.isBoolean()) {
+            return value.getAsBoolean();
+        }
+        return getInt(key, defaultValue ? 1 : 0) != 0;
+    }
+
+    /**
+     * @return raw event params
+     */
+    @NonNull
+    public JsonObject getParams() {
+        return mParams;
+    }
+
+    @Nullable
+    private JsonPrimitive getPrimitive(@NonNull String key) {
+        JsonElement value = mParams.get(key);
+        if(value == null || !value.isJsonPrimitive()) {
+            return null;
+        }
+        return value.getAsJsonPrimitive();
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return String.format(Locale.getDefault(), "<EngineEvent(name=%s params=%s)>", mName, mParams);
+    }
+}
@@ -1,9 +1,12 @@
 package org.acestream.sdk;
 
 import android.content.res.Resources;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.text.TextUtils;
 import android.util.Log;
 
+import org.acestream.sdk.utils.ParcelUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -12,10 +15,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
-public class EngineStatus {
+public class EngineStatus implements Parcelable {
     private final static String TAG = "AS/EngineStatus";
 
-    public static class LivePosition {
+    // Version of binary encoding. Clients report supported version when they register.
+    public final static int PARCEL_VERSION = 1;
+
+    public static class LivePosition implements Parcelable {
         public int first;
         public int last;
         public int pos;
@@ -24,6 +30,52 @@ public class EngineStatus {
         public boolean isLive;
         public int bufferPieces;
 
+        public LivePosition() {
+        }
+
+        private LivePosition(Parcel in) {
+            int[] end = new int[1];
+            ParcelUtils.readBlock(in, end);
+            first = ParcelUtils.readInt(in, end[0], first);
+            last = ParcelUtils.readInt(in, end[0], last);
+            pos = ParcelUtils.readInt(in, end[0], pos);
+            firstTimestamp = ParcelUtils.readInt(in, end[0], firstTimestamp);
+            lastTimestamp = ParcelUtils.readInt(in, end[0], lastTimestamp);
+            isLive = ParcelUtils.readInt(in, end[0], 0) != 0;
+            bufferPieces = ParcelUtils.readInt(in, end[0], bufferPieces);
+            ParcelUtils.skipBlock(in, end[0]);
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            int start = ParcelUtils.beginBlock(dest, PARCEL_VERSION);
+            dest.writeInt(first);
+            dest.writeInt(last);
+            dest.writeInt(pos);
+            dest.writeInt(firstTimestamp);
+            dest.writeInt(lastTimestamp);
+            dest.writeInt(isLive ? 1 : 0);
+            dest.writeInt(bufferPieces);
+            ParcelUtils.endBlock(dest, start);
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        public static final Creator<LivePosition> CREATOR = new Creator<LivePosition>() {
+            @Override
+            public LivePosition createFromParcel(Parcel in) {
+                return new LivePosition(in);
+            }
+
+            @Override
+            public LivePosition[] newArray(int size) {
+                return new LivePosition[size];
+            }
+        };
+
         public String toString() {
             return String.format("LivePosition(%d/%d-%d/%d-%d, live=%d)",
                     pos,
@@ -87,6 +139,83 @@ public class EngineStatus {
         streams = new ArrayList<>();
     }
 
+    private EngineStatus(Parcel in) {
+        int[] end = new int[1];
+        ParcelUtils.readBlock(in, end);
+        status = ParcelUtils.readString(in, end[0], status);
+        playbackSessionId = ParcelUtils.readString(in, end[0], playbackSessionId);
+        progress = ParcelUtils.readInt(in, end[0], progress);
+        peers = ParcelUtils.readInt(in, end[0], peers);
+        speedDown = ParcelUtils.readInt(in, end[0], speedDown);
+        speedUp = ParcelUtils.readInt(in, end[0], speedUp);
+        livePos = ParcelUtils.readNullable(in, end[0], LivePosition.CREATOR);
+        errorMessage = ParcelUtils.readString(in, end[0], errorMessage);
+        streams = ParcelUtils.readTypedList(in, end[0], ContentStream.CREATOR);
+        currentStreamIndex = ParcelUtils.readInt(in, end[0], currentStreamIndex);
+        isLive = ParcelUtils.readInt(in, end[0], isLive);
+        selectedPlayer = ParcelUtils.readNullable(in, end[0], SelectedPlayer.CREATOR);
+        systemInfo = ParcelUtils.readNullable(in, end[0], SystemUsageInfo.CREATOR);
+        outputFormat = ParcelUtils.readString(in, end[0], outputFormat);
+        fileIndex = ParcelUtils.readInt(in, end[0], fileIndex);
+        debugLevel = ParcelUtils.readInt(in, end[0], debugLevel);
+        wanConnectionStatus = ParcelUtils.readInt(in, end[0], wanConnectionStatus);
+        clientSessionId = ParcelUtils.readInt(in, end[0], clientSessionId);
+        initiatorType = ParcelUtils.readInt(in, end[0], initiatorType);
+        initiatorId = ParcelUtils.readString(in, end[0], initiatorId);
+        contentKey = ParcelUtils.readString(in, end[0], contentKey);
+        isOurPlayer = ParcelUtils.readInt(in, end[0], isOurPlayer);
+        ParcelUtils.skipBlock(in, end[0]);
+
+        if(streams == null) {
+            streams = new ArrayList<>();
+        }
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        int start = ParcelUtils.beginBlock(dest, PARCEL_VERSION);
+        dest.writeString(status);
+        dest.writeString(playbackSessionId);
+        dest.writeInt(progress);
+        dest.writeInt(peers);
+        dest.writeInt(speedDown);
+        dest.writeInt(speedUp);
+        ParcelUtils.writeNullable(dest, livePos, flags);
+        dest.writeString(errorMessage);
+        dest.writeTypedList(streams);
+        dest.writeInt(currentStreamIndex);
+        dest.writeInt(isLive);
+        ParcelUtils.writeNullable(dest, selectedPlayer, flags);
+        ParcelUtils.writeNullable(dest, systemInfo, flags);
+        dest.writeString(outputFormat);
+        dest.writeInt(fileIndex);
+        dest.writeInt(debugLevel);
+        dest.writeInt(wanConnectionStatus);
+        dest.writeInt(clientSessionId);
+        dest.writeInt(initiatorType);
+        dest.writeString(initiatorId);
+        dest.writeString(contentKey);
+        dest.writeInt(isOurPlayer);
+        ParcelUtils.endBlock(dest, start);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<EngineStatus> CREATOR = new Creator<EngineStatus>() {
+        @Override
+        public EngineStatus createFromParcel(Parcel in) {
+            return new EngineStatus(in);
+        }
+
+        @Override
+        public EngineStatus[] newArray(int size) {
+            return new EngineStatus[size];
+        }
+    };
+
     public String toJson() {
         try {
             JSONObject root = new JSONObject();
@@ -0,0 +1,84 @@
+package org.acestream.sdk;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Events which client wants to receive from PlaybackManager.
+ *
+ * Events not listed here (auth, settings, engine sessions, cast results, device discovery and
+ * device connection) are always sent because client state depends on them.
+ * Device events for devices in device filter are sent regardless of mask.
+ */
+public class EventSubscription {
+    public final static int EVENT_ENGINE_STATUS = 1;
+    // available, unavailable, ping failed, output format changed
+    public final static int EVENT_DEVICE_AVAILABILITY = 1 << 1;
+    public final static int EVENT_DEVICE_MESSAGE = 1 << 2;
+    // status, duration, volume
+    public final static int EVENT_PLAYBACK_STATUS = 1 << 3;
+    public final static int EVENT_PLAYBACK_POSITION = 1 << 4;
+    public final static int EVENT_PLAYBACK_STATE = 1 << 5;
+
+    public final static int EVENT_ALL = EVENT_ENGINE_STATUS
+            | EVENT_DEVICE_AVAILABILITY
+            | EVENT_DEVICE_MESSAGE
+            | EVENT_PLAYBACK_STATUS
+            | EVENT_PLAYBACK_POSITION
+            | EVENT_PLAYBACK_STATE;
+
+    public final int mask;
+    // Sorted device ids
+    @NonNull
+    public final String[] devices;
+
+    public EventSubscription(int mask, @NonNull String[] devices) {
+        this.mask = mask;
+        this.devices = devices;
+    }
+
+    /**
+     * @return event for remote message or 0 if message is always sent
+     */
+    public static int getEvent(int what) {
+        switch(what) {
+            case AceStreamManager.MSG_ENGINE_STATUS:
+                return EVENT_ENGINE_STATUS;
+            case AceStreamManager.MSG_DEVICE_ON_AVAILABLE:
+            case AceStreamManager.MSG_DEVICE_ON_UNAVAILABLE:
+            case AceStreamManager.MSG_DEVICE_ON_PING_FAILED:
+            case AceStreamManager.MSG_DEVICE_ON_OUTPUT_FORMAT_CHANGED:
+                return EVENT_DEVICE_AVAILABILITY;
+            case AceStreamManager.MSG_DEVICE_ON_MESSAGE:
+                return EVENT_DEVICE_MESSAGE;
+            case AceStreamManager.MSG_DEVICE_ON_PLAYBACK_STATUS:
+            case AceStreamManager.MSG_DEVICE_ON_PLAYBACK_DURATION:
+            case AceStreamManager.MSG_DEVICE_ON_PLAYBACK_VOLUME:
+                return EVENT_PLAYBACK_STATUS;
+            case AceStreamManager.MSG_DEVICE_ON_PLAYBACK_POSITION:
+                return EVENT_PLAYBACK_POSITION;
+            case AceStreamManager.MSG_PLAYBACK_STATE_START:
+            case AceStreamManager.MSG_PLAYBACK_STATE_PREBUFFERING:
+            case AceStreamManager.MSG_PLAYBACK_STATE_PLAY:
+            case AceStreamManager.MSG_PLAYBACK_STATE_STOP:
+                return EVENT_PLAYBACK_STATE;
+            default:
+                return 0;
+        }
+    }
+
+    public boolean isSameAs(@Nullable EventSubscription other) {
+        return other != null
+                && mask == other.mask
+                && Arrays.equals(devices, other.devices);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "<EventSubscription: mask=" + Integer.toBinaryString(mask)
+                + " devices=" + Arrays.toString(devices) + ">";
+    }
+}
@@ -0,0 +1,172 @@
+package org.acestream.sdk;
+
+import android.text.TextUtils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Streaming encoder/decoder of {@link JsonRpcMessage}.
+ *
+ * Decoder reads params straight into message slots without building JSON tree. Nested arrays
+ * and objects (e.g. audio tracks) are kept as raw JSON and parsed only when requested.
+ * Encoder writes the same text as org.json does.
+ */
+class JsonRpcCodec {
+
+    static void decode(@NonNull String message, @NonNull JsonRpcMessage msg) throws JSONException {
+        if(TextUtils.isEmpty(message)) {
+            throw new JSONException("empty message");
+        }
+
+        msg.reset(null);
+        boolean hasMethod = false;
+        JsonReader reader = new JsonReader(new StringReader(message));
+        reader.setLenient(true);
+        try {
+            reader.beginObject();
+            while(reader.hasNext()) {
+                String name = reader.nextName();
+                if("method".equals(name)) {
+                    msg.setMethod(reader.nextString());
+                    hasMethod = true;
+                }
+                else if("params".equals(name)) {
+                    readParams(reader, msg);
+                }
+                else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        catch(IOException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException("malformed message: " + e.getMessage());
+        }
+
+        if(!hasMethod) {
+            throw new JSONException("missing method");
+        }
+    }
+
+    @NonNull
+    static String encode(@NonNull JsonRpcMessage msg) throws JSONException {
+        StringBuilder sb = new StringBuilder(64 + msg.getParamCount() * 24);
+        sb.append("{\"jsonrpc\":\"2.0\",\"method\":");
+        sb.append(JSONObject.quote(msg.getMethod()));
+        int count = msg.getParamCount();
+        if(count > 0) {
+            sb.append(",\"params\":{");
+            for(int i = 0; i < count; i++) {
+                if(i > 0) {
+                    sb.append(',');
+                }
+                sb.append(JSONObject.quote(msg.getParamName(i))).append(':');
+                msg.appendParamValue(i, sb);
+            }
+            sb.append('}');
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static void readParams(@NonNull JsonReader reader, @NonNull JsonRpcMessage msg) throws IOException, JSONException {
+        if(reader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new JSONException("params is not an object");
+        }
+
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            switch(reader.peek()) {
+                case STRING:
+                    msg.addParam(name, (Object)reader.nextString());
+                    break;
+                case NUMBER:
+                    addNumber(msg, name, reader.nextString());
+                    break;
+                case BOOLEAN:
+                    msg.addParam(name, reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    msg.addParam(name, JSONObject.NULL);
+                    break;
+                default: {
+                    StringBuilder raw = new StringBuilder();
+                    copyValue(reader, raw);
+                    msg.addRawParam(name, raw.toString());
+                    break;
+                }
+            }
+        }
+        reader.endObject();
+    }
+
+    // Same rules as org.json: integers are longs, anything else is double
+    private static void addNumber(@NonNull JsonRpcMessage msg, @NonNull String name, @NonNull String value) {
+        if(value.indexOf('.') == -1 && value.indexOf('e') == -1 && value.indexOf('E') == -1) {
+            try {
+                msg.addParam(name, Long.parseLong(value));
+                return;
+            }
+            catch(NumberFormatException e) {
+                // too large for long
+            }
+        }
+        msg.addParam(name, Double.parseDouble(value));
+    }
+
+    private static void copyValue(@NonNull JsonReader reader, @NonNull StringBuilder out) throws IOException {
+        switch(reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                out.append('[');
+                for(int i = 0; reader.hasNext(); i++) {
+                    if(i > 0) {
+                        out.append(',');
+                    }
+                    copyValue(reader, out);
+                }
+                reader.endArray();
+                out.append(']');
+                break;
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                out.append('{');
+                for(int i = 0; reader.hasNext(); i++) {
+                    if(i > 0) {
+                        out.append(',');
+                    }
+                    out.append(JSONObject.quote(reader.nextName())).append(':');
+                    copyValue(reader, out);
+                }
+                reader.endObject();
+                out.append('}');
+                break;
+            case STRING:
+                out.append(JSONObject.quote(reader.nextString()));
+                break;
+            case NUMBER:
+                out.append(reader.nextString());
+                break;
+            case BOOLEAN:
+                out.append(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                out.append("null");
+                break;
+            default:
+                throw new IllegalStateException("unexpected token: " + reader.peek());
+        }
+    }
+}
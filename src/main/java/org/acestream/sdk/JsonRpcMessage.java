@@ -1,25 +1,53 @@
 package org.acestream.sdk;
 
-import android.text.TextUtils;
 import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
+/**
+ * JSON-RPC message.
+ *
+ * Params are kept in parallel arrays: numbers and booleans are stored unboxed, so typed
+ * getters don't allocate or parse strings. Messages have few params, so lookup is linear.
+ *
+ * Text form is handled by {@link JsonRpcCodec}.
+ */
 public class JsonRpcMessage {
 	private final static String TAG = "AceStream/JRM";
 
+	private final static int INITIAL_CAPACITY = 8;
+
+	private final static byte TYPE_LONG = 0;
+	private final static byte TYPE_DOUBLE = 1;
+	private final static byte TYPE_FLOAT = 2;
+	private final static byte TYPE_BOOLEAN = 3;
+	private final static byte TYPE_STRING = 4;
+	// JSONArray, JSONObject, JSONObject.NULL and anything else
+	private final static byte TYPE_OBJECT = 5;
+	// Nested array or object not parsed yet, value is JSON string
+	private final static byte TYPE_RAW = 6;
+
 	private String mMethod;
-	private Map<String,Object> mParams;
+	private int mSize = 0;
+	private String[] mNames = new String[INITIAL_CAPACITY];
+	private byte[] mTypes = new byte[INITIAL_CAPACITY];
+	// long and boolean values
+	private long[] mLongs = new long[INITIAL_CAPACITY];
+	// double and float values
+	private double[] mDoubles = new double[INITIAL_CAPACITY];
+	// string and object values
+	private Object[] mObjects = new Object[INITIAL_CAPACITY];
 
 	public JsonRpcMessage(String method) {
 		mMethod = method;
-		mParams = new HashMap<>();
 	}
 
 	public JsonRpcMessage(String method, String paramName, Object paramValue) {
@@ -27,12 +55,44 @@ public class JsonRpcMessage {
 		addParam(paramName, paramValue);
 	}
 
+	public JsonRpcMessage(String method, String paramName, long paramValue) {
+		this(method);
+		addParam(paramName, paramValue);
+	}
+
+	public JsonRpcMessage(String method, String paramName, boolean paramValue) {
+		this(method);
+		addParam(paramName, paramValue);
+	}
+
+	/**
+	 * Clear params to reuse this message.
+	 */
+	public void reset(String method) {
+		mMethod = method;
+		Arrays.fill(mObjects, 0, mSize, null);
+		Arrays.fill(mNames, 0, mSize, null);
+		mSize = 0;
+	}
+
 	public String getMethod() {
 		return mMethod;
 	}
 
+	/**
+	 * @return read-only snapshot of params with boxed values. It is not backed by this
+	 * message: use addParam() to change params.
+	 */
 	public Map<String, Object> getParams() {
-		return mParams;
+		Map<String, Object> params = new HashMap<>(mSize * 2);
+		for(int i = 0; i < mSize; i++) {
+			params.put(mNames[i], getValue(i));
+		}
+		return Collections.unmodifiableMap(params);
+	}
+
+	public boolean hasParam(String name) {
+		return indexOf(name) != -1;
 	}
 
 	public String getString(String name) {
@@ -40,23 +100,44 @@ public class JsonRpcMessage {
 	}
 
 	public String getString(String name, String defaultValue) {
-		Object value = getParam(name);
-		if(value == null) {
+		int i = indexOf(name);
+		if(i == -1) {
 			return defaultValue;
 		}
-		return String.valueOf(value);
+		switch(mTypes[i]) {
+			case TYPE_LONG:
+				return Long.toString(mLongs[i]);
+			case TYPE_DOUBLE:
+				return Double.toString(mDoubles[i]);
+			case TYPE_FLOAT:
+				return Float.toString((float)mDoubles[i]);
+			case TYPE_BOOLEAN:
+				return mLongs[i] != 0 ? "true" : "false";
+			case TYPE_RAW:
+				return (String)mObjects[i];
+			default:
+				return String.valueOf(mObjects[i]);
+		}
 	}
 
-	public Long getLong(String name) {
+	public long getLong(String name) {
 		return getLong(name, 0);
 	}
 
-	public Long getLong(String name, long defaultValue) {
-		Object value = getParam(name);
-		if(value == null) {
+	public long getLong(String name, long defaultValue) {
+		int i = indexOf(name);
+		if(i == -1) {
 			return defaultValue;
 		}
-		return Long.valueOf(value.toString());
+		switch(mTypes[i]) {
+			case TYPE_LONG:
+				return mLongs[i];
+			case TYPE_DOUBLE:
+			case TYPE_FLOAT:
+				return (long)mDoubles[i];
+			default:
+				return Long.parseLong(getString(name));
+		}
 	}
 
 	public int getInt(String name) {
@@ -64,26 +145,46 @@ public class JsonRpcMessage {
 	}
 
 	public int getInt(String name, int defaultValue) {
-		Object value = getParam(name);
-		if(value == null) {
+		int i = indexOf(name);
+		if(i == -1) {
 			return defaultValue;
 		}
 
 		try {
-			return Integer.valueOf(value.toString());
+			switch(mTypes[i]) {
+				case TYPE_LONG:
+					long value = mLongs[i];
+					if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+						throw new NumberFormatException("out of range");
+					}
+					return (int)value;
+				case TYPE_DOUBLE:
+				case TYPE_FLOAT:
+					return (int)mDoubles[i];
+				default:
+					return Integer.parseInt(getString(name));
+			}
 		}
 		catch(Throwable e) {
-			Log.e(TAG, "getInt() failed: value=" + value, e);
+			Log.e(TAG, "getInt() failed: value=" + getString(name), e);
 			return 0;
 		}
 	}
 
 	public float getFloat(String name) {
-		Object value = getParam(name);
-		if(value == null) {
+		int i = indexOf(name);
+		if(i == -1) {
 			return 0f;
 		}
-		return Float.valueOf(value.toString());
+		switch(mTypes[i]) {
+			case TYPE_LONG:
+				return (float)mLongs[i];
+			case TYPE_DOUBLE:
+			case TYPE_FLOAT:
+				return (float)mDoubles[i];
+			default:
+				return Float.parseFloat(getString(name));
+		}
 	}
 
 	public boolean getBoolean(String name) {
@@ -91,42 +192,104 @@ public class JsonRpcMessage {
 	}
 
 	public boolean getBoolean(String name, boolean defaultValue) {
-		Object value = getParam(name);
-		if(value == null) {
+		int i = indexOf(name);
+		if(i == -1) {
 			return defaultValue;
 		}
-		return Boolean.valueOf(value.toString());
+		if(mTypes[i] == TYPE_BOOLEAN) {
+			return mLongs[i] != 0;
+		}
+		return Boolean.parseBoolean(getString(name));
 	}
 
 	public JSONArray getJSONArray(String name) {
-		Object value = getParam(name);
-		if(value == null) {
+		int i = indexOf(name);
+		if(i == -1) {
 			return null;
 		}
-		return (JSONArray)value;
+		return (JSONArray)getValue(i);
 	}
 
 	public Object getParam(String name) {
-		return mParams.get(name);
+		int i = indexOf(name);
+		return i == -1 ? null : getValue(i);
 	}
 
+	/**
+	 * Null value removes param.
+	 */
 	public void addParam(String name, Object value) {
-		mParams.put(name, value);
+		if(value == null) {
+			removeParam(name);
+		}
+		else if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			addParam(name, ((Number)value).longValue());
+		}
+		else if(value instanceof Double) {
+			addParam(name, ((Double)value).doubleValue());
+		}
+		else if(value instanceof Float) {
+			addParam(name, ((Float)value).floatValue());
+		}
+		else if(value instanceof Boolean) {
+			addParam(name, ((Boolean)value).booleanValue());
+		}
+		else {
+			int i = slot(name);
+			mTypes[i] = (value instanceof String) ? TYPE_STRING : TYPE_OBJECT;
+			mObjects[i] = value;
+		}
 	}
 
-	public String asString() throws JSONException {
-		JSONObject root = new JSONObject();
-		root.put("jsonrpc", "2.0");
-		root.put("method", mMethod);
-
-		if(!mParams.isEmpty()) {
-			JSONObject paramsObj = new JSONObject();
-			for (String key : mParams.keySet()) {
-				paramsObj.put(key, mParams.get(key));
-			}
-			root.put("params", paramsObj);
+	public void addParam(String name, long value) {
+		int i = slot(name);
+		mTypes[i] = TYPE_LONG;
+		mLongs[i] = value;
+		mObjects[i] = null;
+	}
+
+	public void addParam(String name, double value) {
+		int i = slot(name);
+		mTypes[i] = TYPE_DOUBLE;
+		mDoubles[i] = value;
+		mObjects[i] = null;
+	}
+
+	public void addParam(String name, float value) {
+		int i = slot(name);
+		mTypes[i] = TYPE_FLOAT;
+		mDoubles[i] = value;
+		mObjects[i] = null;
+	}
+
+	public void addParam(String name, boolean value) {
+		int i = slot(name);
+		mTypes[i] = TYPE_BOOLEAN;
+		mLongs[i] = value ? 1 : 0;
+		mObjects[i] = null;
+	}
+
+	public void removeParam(String name) {
+		int i = indexOf(name);
+		if(i == -1) {
+			return;
 		}
-		return root.toString();
+		int last = mSize - 1;
+		if(i != last) {
+			// order of params doesn't matter
+			mNames[i] = mNames[last];
+			mTypes[i] = mTypes[last];
+			mLongs[i] = mLongs[last];
+			mDoubles[i] = mDoubles[last];
+			mObjects[i] = mObjects[last];
+		}
+		mNames[last] = null;
+		mObjects[last] = null;
+		mSize = last;
+	}
+
+	public String asString() throws JSONException {
+		return JsonRpcCodec.encode(this);
 	}
 
 	public String toString() {
@@ -139,26 +302,125 @@ public class JsonRpcMessage {
 	}
 
 	public static JsonRpcMessage fromString(String message) throws JSONException {
-		if(TextUtils.isEmpty(message)) {
-			throw new JSONException("empty message");
-		}
+		return fromString(message, new JsonRpcMessage(null));
+	}
+
+	/**
+	 * Decode message into existing instance.
+	 *
+	 * @return |reuse|
+	 */
+	public static JsonRpcMessage fromString(String message, JsonRpcMessage reuse) throws JSONException {
+		JsonRpcCodec.decode(message, reuse);
+		return reuse;
+	}
 
-		JSONObject root = new JSONObject(message);
+	// codec access
+	void setMethod(String method) {
+		mMethod = method;
+	}
 
-		if(!root.has("method")) {
-			throw new JSONException("missing method");
+	void addRawParam(String name, String json) {
+		int i = slot(name);
+		mTypes[i] = TYPE_RAW;
+		mObjects[i] = json;
+	}
+
+	int getParamCount() {
+		return mSize;
+	}
+
+	String getParamName(int i) {
+		return mNames[i];
+	}
+
+	void appendParamValue(int i, StringBuilder sb) throws JSONException {
+		switch(mTypes[i]) {
+			case TYPE_LONG:
+				sb.append(mLongs[i]);
+				break;
+			case TYPE_DOUBLE:
+				sb.append(JSONObject.numberToString(mDoubles[i]));
+				break;
+			case TYPE_FLOAT:
+				sb.append(JSONObject.numberToString((float)mDoubles[i]));
+				break;
+			case TYPE_BOOLEAN:
+				sb.append(mLongs[i] != 0);
+				break;
+			case TYPE_STRING:
+				sb.append(JSONObject.quote((String)mObjects[i]));
+				break;
+			case TYPE_RAW:
+				sb.append((String)mObjects[i]);
+				break;
+			default: {
+				Object value = mObjects[i];
+				if(value == JSONObject.NULL || value instanceof JSONArray || value instanceof JSONObject) {
+					sb.append(value.toString());
+				}
+				else if(value instanceof Number) {
+					sb.append(JSONObject.numberToString((Number)value));
+				}
+				else {
+					sb.append(JSONObject.quote(value.toString()));
+				}
+				break;
+			}
 		}
-		JsonRpcMessage msg = new JsonRpcMessage(root.getString("method"));
+	}
 
-		if(root.has("params")) {
-			JSONObject params = root.getJSONObject("params");
-			Iterator<String> keys = params.keys();
-			while(keys.hasNext()) {
-				String key = keys.next();
-				msg.addParam(key, params.get(key));
+	private int indexOf(String name) {
+		for(int i = 0; i < mSize; i++) {
+			if(mNames[i].equals(name)) {
+				return i;
 			}
 		}
+		return -1;
+	}
+
+	// Index of existing param or new slot
+	private int slot(String name) {
+		int i = indexOf(name);
+		if(i != -1) {
+			return i;
+		}
 
-		return msg;
+		if(mSize == mNames.length) {
+			int capacity = mSize * 2;
+			mNames = Arrays.copyOf(mNames, capacity);
+			mTypes = Arrays.copyOf(mTypes, capacity);
+			mLongs = Arrays.copyOf(mLongs, capacity);
+			mDoubles = Arrays.copyOf(mDoubles, capacity);
+			mObjects = Arrays.copyOf(mObjects, capacity);
+		}
+		mNames[mSize] = name;
+		return mSize++;
+	}
+
+	private Object getValue(int i) {
+		switch(mTypes[i]) {
+			case TYPE_LONG:
+				return mLongs[i];
+			case TYPE_DOUBLE:
+				return mDoubles[i];
+			case TYPE_FLOAT:
+				return (float)mDoubles[i];
+			case TYPE_BOOLEAN:
+				return mLongs[i] != 0;
+			case TYPE_RAW:
+				// parse on first access
+				try {
+					mObjects[i] = new JSONTokener((String)mObjects[i]).nextValue();
+					mTypes[i] = TYPE_OBJECT;
+				}
+				catch(JSONException e) {
+					Log.e(TAG, "failed to parse param: name=" + mNames[i], e);
+					return null;
+				}
+				return mObjects[i];
+			default:
+				return mObjects[i];
+		}
 	}
 }
@@ -9,6 +9,7 @@ import android.util.Log;
 
 import org.acestream.engine.controller.Callback;
 import org.acestream.sdk.controller.EngineApi;
+import org.acestream.sdk.controller.MediaFilesIndex;
 import org.acestream.sdk.controller.api.TransportFileDescriptor;
 import org.acestream.sdk.controller.api.response.MediaFilesResponse;
 import org.acestream.sdk.errors.TransportFileParsingException;
@@ -230,17 +231,35 @@ public class MediaItem {
         }
 
         if(mMediaFile == null) {
-            Log.v(TAG, "startP2P: no media file, get from engine");
             if(mUri == null) {
                 throw new IllegalStateException("missing descriptor and MRL");
             }
 
             final int fileIndex = getP2PFileIndex();
 
+            // Answer from persistent index and refresh it in background
+            MediaFilesResponse indexed = MediaFilesIndex.getInstance().get(descriptor);
+            MediaFilesResponse.MediaFile indexedFile = (indexed == null) ? null : indexed.getMediaFileByIndex(fileIndex);
+            if(indexedFile != null) {
+                Log.v(TAG, "startP2P: no media file, got from index");
+                mMediaFile = indexedFile;
+                setTitle(indexedFile.filename);
+                manager.getEngine(new IAceStreamManager.EngineStateCallback() {
+                    @Override
+                    public void onEngineConnected(@NonNull IAceStreamManager manager, @NonNull EngineApi engineApi) {
+                        engineApi.getMediaFiles(descriptor, MediaFilesIndex.REFRESH_CALLBACK);
+                    }
+                });
+                startP2P(manager, nextFileIndexes, streamIndex, restartSessionWithOriginalInitiator, productKey, listener);
+                return;
+            }
+
+            Log.v(TAG, "startP2P: no media file, get from engine");
+
             manager.getEngine(new IAceStreamManager.EngineStateCallback() {
                 @Override
                 public void onEngineConnected(final @NonNull IAceStreamManager manager, @NonNull EngineApi engineApi) {
-                    engineApi.getMediaFiles(descriptor, new Callback<MediaFilesResponse>() {
+                    engineApi.getMediaFiles(MediaItem.this, descriptor, new Callback<MediaFilesResponse>() {
                         @Override
                         public void onSuccess(MediaFilesResponse result) {
                             for(MediaFilesResponse.MediaFile mf: result.files) {
@@ -0,0 +1,163 @@
+package org.acestream.sdk;
+
+import android.os.Message;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Messages to remote service sent before connection is established.
+ *
+ * While connecting messages are queued and sent in order when connected. Setters which
+ * only need the latest value are collapsed. When service is missing queued and new messages
+ * are dropped. Message which cannot be sent because connection is lost is queued again.
+ */
+class OutboundMessageQueue {
+    private final static String TAG = "AS/OutboundQueue";
+
+    private final static int MAX_QUEUED = 64;
+
+    public final static String ERROR_SERVICE_MISSING = "service is not available";
+    public final static String ERROR_QUEUE_FULL = "too many pending messages";
+
+    private final static int STATE_CONNECTING = 0;
+    private final static int STATE_CONNECTED = 1;
+    private final static int STATE_MISSING = 2;
+
+    interface Target {
+        /**
+         * @return false if message was not sent because connection is lost
+         */
+        boolean send(@NonNull Message msg);
+
+        /**
+         * @return key of setter which needs only the latest value, null if message must
+         *         not be collapsed
+         */
+        @Nullable
+        String getCollapseKey(@NonNull Message msg);
+
+        /**
+         * Put the latest value into queued message.
+         */
+        void collapse(@NonNull Message queued, @NonNull Message latest);
+
+        /**
+         * Message was not sent. Called outside of queue lock.
+         */
+        void onDropped(@NonNull Message msg, @NonNull String error);
+    }
+
+    private final Target mTarget;
+    private final ArrayDeque<Message> mQueue = new ArrayDeque<>();
+    private final HashMap<String, Message> mByKey = new HashMap<>();
+    private int mState = STATE_CONNECTING;
+
+    OutboundMessageQueue(@NonNull Target target) {
+        mTarget = target;
+    }
+
+    void send(@NonNull Message msg) {
+        Message dropped = null;
+        String error = null;
+        synchronized (this) {
+            if(mState == STATE_CONNECTED) {
+                if(mTarget.send(msg)) {
+                    return;
+                }
+                // Disconnect is not reported yet: keep message until reconnect
+                Log.w(TAG, "send: connection lost: what=" + msg.what);
+                mState = STATE_CONNECTING;
+            }
+
+            if(mState == STATE_MISSING) {
+                dropped = msg;
+                error = ERROR_SERVICE_MISSING;
+            }
+            else {
+                String key = mTarget.getCollapseKey(msg);
+                Message queued = (key == null) ? null : mByKey.get(key);
+                if(queued != null) {
+                    mTarget.collapse(queued, msg);
+                    return;
+                }
+
+                if(mQueue.size() >= MAX_QUEUED) {
+                    dropped = mQueue.pollFirst();
+                    error = ERROR_QUEUE_FULL;
+                    removeKey(dropped);
+                }
+                mQueue.addLast(msg);
+                if(key != null) {
+                    mByKey.put(key, msg);
+                }
+            }
+        }
+
+        if(dropped != null) {
+            Log.w(TAG, "send: message dropped: what=" + dropped.what + " error=" + error);
+            mTarget.onDropped(dropped, error);
+        }
+    }
+
+    /**
+     * Connection is established: send queued messages.
+     */
+    synchronized void setConnected() {
+        Log.v(TAG, "setConnected: queued=" + mQueue.size());
+        mState = STATE_CONNECTED;
+        while(!mQueue.isEmpty()) {
+            Message msg = mQueue.peekFirst();
+            if(!mTarget.send(msg)) {
+                // keep the rest until reconnect
+                Log.w(TAG, "setConnected: connection lost: queued=" + mQueue.size());
+                mState = STATE_CONNECTING;
+                return;
+            }
+            mQueue.pollFirst();
+            removeKey(msg);
+        }
+    }
+
+    /**
+     * Connection is lost or being established: queue new messages.
+     */
+    synchronized void setConnecting() {
+        mState = STATE_CONNECTING;
+    }
+
+    /**
+     * Service cannot be reached: drop queued and new messages.
+     */
+    void setMissing() {
+        List<Message> dropped;
+        synchronized (this) {
+            Log.v(TAG, "setMissing: queued=" + mQueue.size());
+            mState = STATE_MISSING;
+            dropped = new ArrayList<>(mQueue);
+            mQueue.clear();
+            mByKey.clear();
+        }
+
+        for(Message msg: dropped) {
+            mTarget.onDropped(msg, ERROR_SERVICE_MISSING);
+        }
+    }
+
+    synchronized int size() {
+        return mQueue.size();
+    }
+
+    private void removeKey(@NonNull Message msg) {
+        String key = mTarget.getCollapseKey(msg);
+        if(key != null && mByKey.get(key) == msg) {
+            mByKey.remove(key);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.acestream.sdk;
+
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Remote devices known to the client.
+ *
+ * Service sends full device descriptor (JSON) when device is added or changed, and may send
+ * only int handle in subsequent messages. Devices are indexed by handle, id, (ip, type) and
+ * by descriptor string, so repeated messages don't need JSON parsing. Only the latest
+ * descriptor of each device is kept: changed devices (e.g. new status) don't grow the index.
+ */
+class RemoteDeviceRegistry {
+    private final static String TAG = "AS/DeviceRegistry";
+
+    public final static int NO_HANDLE = -1;
+
+    private final ConcurrentHashMap<Integer, RemoteDevice> mByHandle = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, RemoteDevice> mById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, RemoteDevice> mByAddress = new ConcurrentHashMap<>();
+    // Descriptors already seen, for services which don't send handles
+    private final ConcurrentHashMap<String, RemoteDevice> mByDescriptor = new ConcurrentHashMap<>();
+    // Latest descriptor of each device id, to drop previous one from mByDescriptor
+    private final ConcurrentHashMap<String, String> mDescriptorById = new ConcurrentHashMap<>();
+
+    /**
+     * Get device by handle and/or descriptor. Device is registered when it's seen first time.
+     *
+     * @return null if device is unknown and descriptor is missing
+     */
+    @Nullable
+    RemoteDevice obtain(@NonNull AceStreamManager manager, int handle, @Nullable String descriptor) {
+        if(descriptor == null) {
+            RemoteDevice device = (handle == NO_HANDLE) ? null : mByHandle.get(handle);
+            if(device == null) {
+                Log.e(TAG, "obtain: unknown device: handle=" + handle);
+            }
+            return device;
+        }
+
+        RemoteDevice device = mByDescriptor.get(descriptor);
+        if(device == null) {
+            RemoteDevice parsed = RemoteDevice.fromJson(manager, descriptor);
+            device = mById.putIfAbsent(parsed.getId(), parsed);
+            if(device == null) {
+                device = parsed;
+                mByAddress.put(getAddressKey(device.getIpAddress(), device.getDeviceType()), device);
+            }
+            mByDescriptor.put(descriptor, device);
+            String previous = mDescriptorById.put(device.getId(), descriptor);
+            if(previous != null && !previous.equals(descriptor)) {
+                mByDescriptor.remove(previous, device);
+            }
+        }
+
+        if(handle != NO_HANDLE) {
+            mByHandle.put(handle, device);
+        }
+        return device;
+    }
+
+    @Nullable
+    RemoteDevice findById(@Nullable String id) {
+        return id == null ? null : mById.get(id);
+    }
+
+    @Nullable
+    RemoteDevice find(@Nullable SelectedPlayer player) {
+        if(player == null || player.id1 == null) {
+            return null;
+        }
+        RemoteDevice device = mById.get(player.id1);
+        return (device != null && device.equals(player)) ? device : null;
+    }
+
+    @Nullable
+    RemoteDevice findByIp(@Nullable String ip, int type) {
+        return ip == null ? null : mByAddress.get(getAddressKey(ip, type));
+    }
+
+    void remove(@NonNull RemoteDevice device) {
+        mById.remove(device.getId(), device);
+        mByAddress.remove(getAddressKey(device.getIpAddress(), device.getDeviceType()), device);
+        // Devices are rarely removed, so scanning is fine here
+        while(mByHandle.values().remove(device)) {
+            // remove all handles of this device
+        }
+        String descriptor = mDescriptorById.get(device.getId());
+        if(descriptor != null && mByDescriptor.remove(descriptor, device)) {
+            mDescriptorById.remove(device.getId(), descriptor);
+        }
+    }
+
+    @NonNull
+    Collection<RemoteDevice> getAll() {
+        return mById.values();
+    }
+
+    private static String getAddressKey(@Nullable String ip, int type) {
+        return type + "/" + ip;
+    }
+}
@@ -3,18 +3,22 @@ package org.acestream.sdk;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ResolveInfo;
+import android.os.Parcel;
+import android.os.Parcelable;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 
+import org.acestream.sdk.utils.ParcelUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.Locale;
 
-public class SelectedPlayer {
+public class SelectedPlayer implements Parcelable {
     private final static String TAG = "AS/SelectedPlayer";
+    private final static int PARCEL_VERSION = 1;
 
     public static final int LOCAL_PLAYER = 0;
     public static final int CONNECTABLE_DEVICE = 1;
@@ -61,6 +65,43 @@ public class SelectedPlayer {
         this.id2 = id2;
     }
 
+    private SelectedPlayer(Parcel in) {
+        int[] end = new int[1];
+        ParcelUtils.readBlock(in, end);
+        type = ParcelUtils.readInt(in, end[0], type);
+        id1 = ParcelUtils.readString(in, end[0], id1);
+        id2 = ParcelUtils.readString(in, end[0], id2);
+        name = ParcelUtils.readString(in, end[0], name);
+        ParcelUtils.skipBlock(in, end[0]);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        int start = ParcelUtils.beginBlock(dest, PARCEL_VERSION);
+        dest.writeInt(type);
+        dest.writeString(id1);
+        dest.writeString(id2);
+        dest.writeString(name);
+        ParcelUtils.endBlock(dest, start);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<SelectedPlayer> CREATOR = new Creator<SelectedPlayer>() {
+        @Override
+        public SelectedPlayer createFromParcel(Parcel in) {
+            return new SelectedPlayer(in);
+        }
+
+        @Override
+        public SelectedPlayer[] newArray(int size) {
+            return new SelectedPlayer[size];
+        }
+    };
+
     public boolean isOurPlayer() {
         return this.type == OUR_PLAYER;
     }
@@ -0,0 +1,86 @@
+package org.acestream.sdk;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Time of startup phases since {@link AceStream#init}.
+ *
+ * Only the first occurrence of each phase is recorded.
+ */
+public class StartupTimeline {
+    public final static int PHASE_MANAGER_CREATED = 0;
+    public final static int PHASE_REMOTE_BIND = 1;
+    public final static int PHASE_REMOTE_CONNECTED = 2;
+    public final static int PHASE_SERVICE_READY = 3;
+    public final static int PHASE_ENGINE_BIND = 4;
+    public final static int PHASE_ENGINE_CONNECTED = 5;
+    public final static int PHASE_WORKING_DIRS = 6;
+
+    private final static String[] PHASE_NAMES = {
+            "manager_created",
+            "remote_bind",
+            "remote_connected",
+            "service_ready",
+            "engine_bind",
+            "engine_connected",
+            "working_dirs",
+    };
+
+    private final static StartupTimeline sInstance = new StartupTimeline();
+
+    private long mStartedAt = 0;
+    private final long[] mPhases = new long[PHASE_NAMES.length];
+
+    public static StartupTimeline getInstance() {
+        return sInstance;
+    }
+
+    private StartupTimeline() {
+        Arrays.fill(mPhases, -1);
+    }
+
+    synchronized void start() {
+        if(mStartedAt == 0) {
+            mStartedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    synchronized void mark(int phase) {
+        if(mStartedAt == 0) {
+            mStartedAt = SystemClock.elapsedRealtime();
+        }
+        if(mPhases[phase] == -1) {
+            mPhases[phase] = SystemClock.elapsedRealtime() - mStartedAt;
+        }
+    }
+
+    /**
+     * @return ms from start to phase or -1 if phase was not reached
+     */
+    public synchronized long get(int phase) {
+        return mPhases[phase];
+    }
+
+    @NonNull
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("<StartupTimeline:");
+        for(int i = 0; i < mPhases.length; i++) {
+            if(mPhases[i] != -1) {
+                sb.append(String.format(Locale.getDefault(), " %s=%d", PHASE_NAMES[i], mPhases[i]));
+            }
+        }
+        sb.append(">");
+        return sb.toString();
+    }
+}
@@ -1,13 +1,17 @@
 package org.acestream.sdk;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.Log;
 
+import org.acestream.sdk.utils.ParcelUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-public class SystemUsageInfo {
+public class SystemUsageInfo implements Parcelable {
     private final static String TAG = "AceStream/SUI";
+    private final static int PARCEL_VERSION = 1;
 
     public double memoryTotal;
     public double memoryAvailable;
@@ -16,6 +20,41 @@ public class SystemUsageInfo {
     public SystemUsageInfo() {
     }
 
+    private SystemUsageInfo(Parcel in) {
+        int[] end = new int[1];
+        ParcelUtils.readBlock(in, end);
+        memoryTotal = ParcelUtils.readDouble(in, end[0], memoryTotal);
+        memoryAvailable = ParcelUtils.readDouble(in, end[0], memoryAvailable);
+        cpuUsage = ParcelUtils.readFloat(in, end[0], cpuUsage);
+        ParcelUtils.skipBlock(in, end[0]);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        int start = ParcelUtils.beginBlock(dest, PARCEL_VERSION);
+        dest.writeDouble(memoryTotal);
+        dest.writeDouble(memoryAvailable);
+        dest.writeFloat(cpuUsage);
+        ParcelUtils.endBlock(dest, start);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<SystemUsageInfo> CREATOR = new Creator<SystemUsageInfo>() {
+        @Override
+        public SystemUsageInfo createFromParcel(Parcel in) {
+            return new SystemUsageInfo(in);
+        }
+
+        @Override
+        public SystemUsageInfo[] newArray(int size) {
+            return new SystemUsageInfo[size];
+        }
+    };
+
     public String toJson() {
         try {
             JSONObject root = new JSONObject();
@@ -6,28 +6,36 @@ import androidx.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.MalformedJsonException;
 
 import org.acestream.engine.controller.Callback;
 import org.acestream.engine.service.v0.IAceStreamEngine;
 import org.acestream.sdk.AceStream;
 import org.acestream.sdk.EngineSession;
-import org.acestream.sdk.controller.api.DataWithMime;
 import org.acestream.sdk.controller.api.TransportFileDescriptor;
+import org.acestream.sdk.controller.api.TransportFileRequestBody;
 import org.acestream.sdk.controller.api.response.EngineApiResponse;
 import org.acestream.sdk.controller.api.response.MediaFilesResponse;
 import org.acestream.sdk.controller.api.response.RequestAdsResponse;
+import org.acestream.sdk.controller.api.response.ResponseAdapters;
+import org.acestream.sdk.utils.ApiMetrics;
+import org.acestream.sdk.utils.CountingInputStream;
+import org.acestream.sdk.utils.HttpClients;
 import org.acestream.sdk.utils.Logger;
+import org.acestream.sdk.utils.ResponseReader;
+import org.acestream.sdk.utils.Workers;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import okhttp3.ConnectionPool;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
@@ -39,12 +47,14 @@ import retrofit2.http.Body;
 import retrofit2.http.GET;
 import retrofit2.http.POST;
 import retrofit2.http.QueryMap;
+import retrofit2.http.Streaming;
 import retrofit2.http.Url;
 
 public class EngineApi {
 
     private final static String TAG = "AS/EngineApi";
 
+
     public static int STATUS_OK = 0;
     public static int STATUS_NON_FATAL_ERROR = 1;
     public static int STATUS_FATAL_ERROR = 2;
@@ -54,8 +64,52 @@ public class EngineApi {
     protected String mAccessToken;
     protected int mPort;
 
-    private static ConnectionPool mHttpConnectionPool = new ConnectionPool(7, 2, TimeUnit.MINUTES);
-    private Retrofit mRetrofit;
+    // get_media_files responses cache
+    private final static int MEDIA_FILES_CACHE_SIZE = 16;
+    private final static long MEDIA_FILES_CACHE_TTL = 300000;
+
+    /**
+     * Handle of API call.
+     * Callback of canceled call is never called.
+     */
+    public interface Request {
+        void cancel();
+        boolean isCanceled();
+    }
+
+    /**
+     * Timeouts of API call.
+     */
+    private static class Deadline {
+        final long connectTimeout;
+        final long readTimeout;
+
+        Deadline(long connectTimeout, long readTimeout) {
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+    }
+
+    // Deadline policies per API method
+    private final static Deadline DEADLINE_DEFAULT = new Deadline(240000, 300000);
+    private final static Map<String, Deadline> DEADLINES = new HashMap<>();
+    static {
+        // Engine may need to download transport file from network
+        DEADLINES.put("get_media_files", new Deadline(10000, 120000));
+        DEADLINES.put("stop", new Deadline(5000, 15000));
+        DEADLINES.put("set_debug_level", new Deadline(5000, 10000));
+    }
+
+    // API methods which only read engine state, so they can be safely sent again
+    private final static Set<String> RETRYABLE_METHODS = new HashSet<>();
+    static {
+        RETRYABLE_METHODS.add("get_media_files");
+    }
+
+    private final Map<Deadline, Retrofit> mRetrofits = new HashMap<>();
+    // Last get_media_files request per owner
+    private final Map<Object, OwnedMediaFilesRequest> mOwnerRequests = new HashMap<>();
+    private final MediaFilesCache mMediaFilesCache = new MediaFilesCache(MEDIA_FILES_CACHE_SIZE, MEDIA_FILES_CACHE_TTL);
 
     public EngineApi(IAceStreamEngine service) {
         mService = service;
@@ -70,7 +124,6 @@ public class EngineApi {
             mPort = 6878;
         }
 
-        mRetrofit = createRetrofit();
     }
 
     public String getHost() {
@@ -85,61 +138,198 @@ public class EngineApi {
         return mService;
     }
 
-    public void getMediaFiles(TransportFileDescriptor descriptor, @NonNull final Callback<MediaFilesResponse> callback) {
-        String url = "/server/api?api_version=2&method=get_media_files&mode=full&expand_wrapper=1&dump_transport_file=1&" + descriptor.getQueryString();
-        if(descriptor.shouldPost()) {
-            DataWithMime data = descriptor.getPostPayload();
-            RequestBody body = RequestBody.create(
-                    MediaType.parse(data.getMime()),
-                    data.getData()
-            );
-            apiCall(url,
-                    null,
-                    body,
-                    callback,
-                    new TypeToken<EngineApiResponse<MediaFilesResponse>>(){});
+    /**
+     * Get media files and cancel previous get_media_files request of the same owner.
+     *
+     * @param owner Object which owns request (e.g. media item)
+     */
+    public Request getMediaFiles(@NonNull Object owner, TransportFileDescriptor descriptor, @NonNull final Callback<MediaFilesResponse> callback) {
+        OwnedMediaFilesRequest ownedRequest = new OwnedMediaFilesRequest(owner, callback);
+        Request request = getMediaFiles(descriptor, ownedRequest);
+
+        OwnedMediaFilesRequest previous;
+        synchronized (mOwnerRequests) {
+            ownedRequest.request = request;
+            if(ownedRequest.finished) {
+                previous = mOwnerRequests.remove(owner);
+            }
+            else {
+                previous = mOwnerRequests.put(owner, ownedRequest);
+            }
         }
-        else {
-            apiCall(url,
-                    null,
-                    callback,
-                    new TypeToken<EngineApiResponse<MediaFilesResponse>>() {});
+
+        if(previous != null && previous != ownedRequest) {
+            Logger.v(TAG, "getMediaFiles: cancel superseded request");
+            previous.cancel();
         }
+
+        return ownedRequest;
     }
 
-    public void stopSession(@NonNull EngineSession session, @Nullable final Callback<Boolean> callback) {
+    public Request getMediaFiles(TransportFileDescriptor descriptor, @NonNull final Callback<MediaFilesResponse> callback) {
+        final String key = descriptor.getCanonicalKey();
+        if(key == null) {
+            return requestMediaFiles(descriptor, callback);
+        }
+
+        MediaFilesResponse cached = mMediaFilesCache.get(key);
+        if(cached != null) {
+            Logger.v(TAG, "getMediaFiles: got from cache: key=" + key);
+            // Transport file data is kept only in transport file cache
+            final MediaFilesResponse result = MediaFilesCache.copy(
+                    cached,
+                    AceStream.getTransportFileFromCache(descriptor.getDescriptorString()));
+            final Request request = new SimpleRequest();
+            // Deliver asynchronously like responses from engine
+            Workers.postOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    if(!request.isCanceled()) {
+                        callback.onSuccess(result);
+                    }
+                }
+            }, 0);
+            return request;
+        }
+
+        Request waiter = new SimpleRequest() {
+            @Override
+            public void cancel() {
+                super.cancel();
+                Request request = mMediaFilesCache.leave(key, callback);
+                if(request != null) {
+                    Logger.v(TAG, "getMediaFiles: cancel request: key=" + key);
+                    request.cancel();
+                }
+            }
+        };
+
+        if(!mMediaFilesCache.join(key, callback)) {
+            Logger.v(TAG, "getMediaFiles: join request in flight: key=" + key);
+            return waiter;
+        }
+
+        Request request = requestMediaFiles(descriptor, new Callback<MediaFilesResponse>() {
+            @Override
+            public void onSuccess(MediaFilesResponse result) {
+                for(Callback<MediaFilesResponse> cb: mMediaFilesCache.complete(key, result)) {
+                    cb.onSuccess(result);
+                }
+            }
+
+            @Override
+            public void onError(String err) {
+                for(Callback<MediaFilesResponse> cb: mMediaFilesCache.complete(key, null)) {
+                    cb.onError(err);
+                }
+            }
+        });
+
+        if(!mMediaFilesCache.attach(key, request)) {
+            // all waiters have left
+            request.cancel();
+        }
+
+        return waiter;
+    }
+
+    /**
+     * Forget cached get_media_files response for this descriptor.
+     */
+    public void invalidateMediaFiles(@NonNull TransportFileDescriptor descriptor) {
+        String key = descriptor.getCanonicalKey();
+        if(key != null) {
+            mMediaFilesCache.invalidate(key);
+        }
+    }
+
+    private Request requestMediaFiles(final TransportFileDescriptor descriptor, @NonNull final Callback<MediaFilesResponse> resultCallback) {
+        // Save file lists to persistent index
+        final Callback<MediaFilesResponse> callback = new Callback<MediaFilesResponse>() {
+            @Override
+            public void onSuccess(MediaFilesResponse result) {
+                MediaFilesIndex.getInstance().put(descriptor, result);
+                if(result.transport_file_data != null && descriptor.getCanonicalKey() != null) {
+                    // Index has no transport file data, keep it in memory
+                    AceStream.putTransportFileToCache(descriptor.getDescriptorString(), result.transport_file_data);
+                }
+                resultCallback.onSuccess(result);
+            }
+
+            @Override
+            public void onError(String err) {
+                resultCallback.onError(err);
+            }
+        };
+
+        // Stream transport file instead of building whole JSON payload in memory. Local file is
+        // checked only once; if it's gone before it's read, request fails with IO error.
+        TransportFileRequestBody body = TransportFileRequestBody.fromDescriptor(descriptor);
+        String url = "/server/api?api_version=2&method=get_media_files&mode=full&expand_wrapper=1&dump_transport_file=1&"
+                + descriptor.getQueryString(body != null);
+        return apiCall(url,
+                null,
+                body,
+                callback,
+                ResponseAdapters.MEDIA_FILES_RESPONSE);
+    }
+
+    public Request stopSession(@NonNull EngineSession session, @Nullable final Callback<Boolean> callback) {
         if(session.commandUrl == null) {
             throw new IllegalStateException("missing command url");
         }
         String url = session.commandUrl + "?method=stop&api_version=2";
         // Returns string "ok" on success
-        apiCall(url, null, callback, new TypeToken<EngineApiResponse<String>>(){});
+        return apiCall(url, null, null, callback, ResponseAdapters.OK_RESPONSE);
     }
 
-    public void setDebugLevel(int level, @Nullable final Callback<Boolean> callback) {
+    public Request setDebugLevel(int level, @Nullable final Callback<Boolean> callback) {
         String url = "/server/api?api_version=2&method=set_debug_level&level=" + level;
         // Returns string "ok" on success
-        apiCall(url, null, callback, new TypeToken<EngineApiResponse<String>>(){});
+        return apiCall(url, null, null, callback, ResponseAdapters.OK_RESPONSE);
     }
 
-    protected <T> void apiCall(String url,
+    protected <T> Request apiCall(String url,
                              Map<String, String> params,
                              @Nullable final Callback<T> callback,
                              final TypeToken tt) {
-        apiCall(url, params, null, callback, tt);
+        // Gson caches adapters per type, so reflection is done only once per response type
+        @SuppressWarnings("unchecked")
+        TypeAdapter<EngineApiResponse<T>> adapter = (tt == null)
+                ? null
+                : (TypeAdapter<EngineApiResponse<T>>) ResponseAdapters.gson().getAdapter(tt);
+        return apiCall(url, params, null, callback, adapter);
     }
 
-    private <T> void apiCall(final String url,
+    /**
+     * Make API call and deserialize response.
+     *
+     * @param adapter Adapter used to read response straight from the body stream.
+     *                When null the raw body string is passed to callback as result.
+     */
+    private <T> Request apiCall(final String url,
                              Map<String, String> params,
                              RequestBody postPayload,
                              @Nullable final Callback<T> callback,
-                             final TypeToken tt) {
+                             @Nullable final TypeAdapter<EngineApiResponse<T>> adapter) {
 
         if(params == null) {
             // retrofit requires non-null params
             params = new HashMap<>();
         }
-        EngineApiService api = getRetrofit().create(EngineApiService.class);
+        long requestBytes = 0;
+        if(postPayload != null) {
+            try {
+                requestBytes = postPayload.contentLength();
+            }
+            catch(IOException e) {
+                // unknown length
+            }
+        }
+        String method = ApiMetrics.getMethodName(url);
+        final ApiMetrics.Sample metrics = ApiMetrics.getInstance().begin(method, requestBytes);
+
+        EngineApiService api = getRetrofit(method).create(EngineApiService.class);
         final Call<ResponseBody> call;
         if(postPayload != null) {
             call = api.apiCallPost(url, params, postPayload);
@@ -148,95 +338,331 @@ public class EngineApi {
             call = api.apiCall(url, params);
         }
 
-        call.enqueue(new retrofit2.Callback<ResponseBody>() {
+        final boolean retryable = RETRYABLE_METHODS.contains(method);
+        final CallRequest request = new CallRequest(call);
+        final retrofit2.Callback<ResponseBody> responseCallback = new retrofit2.Callback<ResponseBody>() {
             @Override
             public void onResponse(@NonNull Call<ResponseBody> call, @NonNull Response<ResponseBody> response) {
                 ResponseBody body = response.body();
+                if(request.isCanceled()) {
+                    if(body != null) {
+                        body.close();
+                    }
+                    metrics.error(ApiMetrics.ERROR_CANCELED, 0);
+                    return;
+                }
+                EngineGate.getInstance().reportSuccess();
+
                 if (body == null) {
                     Log.e(TAG, "call: empty body");
-                    if(callback != null) {
-                        callback.onError("missing body");
-                    }
+                    metrics.error(ApiMetrics.ERROR_OTHER, 0);
+                    postError(callback, "missing body");
                     return;
                 }
 
                 EngineApiResponse<T> apiResponse;
-                Gson gson = new Gson();
-                String rawBody = null;
+                CountingInputStream stream = new CountingInputStream(body.byteStream());
                 try {
-                    rawBody = body.string();
-                    body.close();
-
-                    if(tt == null) {
+                    Charset charset = ResponseReader.getCharset(body.contentType());
+                    if(adapter == null) {
                         apiResponse = new EngineApiResponse<>();
                         apiResponse.error = null;
-                        apiResponse.result = (T) rawBody;
+                        //noinspection unchecked
+                        apiResponse.result = (T) ResponseReader.readString(stream, charset, body.contentLength());
                     }
                     else {
-                        apiResponse = gson.fromJson(rawBody, tt.getType());
+                        apiResponse = adapter.read(ResponseReader.jsonReader(stream, charset));
                     }
                 }
-                catch(IOException|JsonSyntaxException e) {
-                    Logger.v(TAG, "failed response body=" + rawBody);
-                    Log.e(TAG, "failed to deserialize response", e);
-                    if(callback != null) {
-                        callback.onError("Internal error");
-                    }
+                catch(IOException|JsonParseException|IllegalStateException|NumberFormatException e) {
+                    Log.e(TAG, "failed to deserialize response: url=" + url, e);
+                    boolean readError = (e instanceof IOException) && !(e instanceof MalformedJsonException);
+                    metrics.error(readError ? ApiMetrics.ERROR_CONNECT : ApiMetrics.ERROR_JSON, stream.getCount());
+                    postError(callback, "Internal error");
+                    return;
+                }
+                finally {
+                    body.close();
+                }
+
+                if (apiResponse == null) {
+                    Log.e(TAG, "call: got error: empty response");
+                    metrics.error(ApiMetrics.ERROR_JSON, stream.getCount());
+                    postError(callback, "Internal error");
                     return;
                 }
 
                 if (apiResponse.error != null) {
                     Log.e(TAG, "call: got error: " + apiResponse.error.message);
-                    if(callback != null) {
-                        callback.onError(apiResponse.error.message);
-                    }
+                    metrics.error(ApiMetrics.ERROR_ENGINE, stream.getCount());
+                    postError(callback, apiResponse.error.message);
                     return;
                 }
 
                 if (apiResponse.result == null) {
                     Log.e(TAG, "call: got error: null result");
-                    if(callback != null) {
-                        callback.onError("Internal error");
-                    }
+                    metrics.error(ApiMetrics.ERROR_ENGINE, stream.getCount());
+                    postError(callback, "Internal error");
                     return;
                 }
 
-                if(callback != null) {
-                    callback.onSuccess(apiResponse.result);
-                }
+                metrics.success(stream.getCount());
+                postSuccess(callback, apiResponse.result);
             }
 
             @Override
             public void onFailure(@NonNull Call<ResponseBody> call, @NonNull Throwable t) {
+                int cause;
+                if(request.isCanceled()) {
+                    metrics.error(ApiMetrics.ERROR_CANCELED, 0);
+                    return;
+                }
+                else if(call.isCanceled()) {
+                    cause = ApiMetrics.ERROR_CANCELED;
+                }
+                else if(t instanceof IOException) {
+                    cause = ApiMetrics.ERROR_CONNECT;
+                    // Request may have reached engine, e.g. read timeout: don't count or resend it
+                    if(EngineGate.isConnectFailure(t)) {
+                        EngineGate.getInstance().reportFailure();
+                        if(retryable && retry(request, this)) {
+                            return;
+                        }
+                    }
+                }
+                else {
+                    cause = ApiMetrics.ERROR_OTHER;
+                }
+                metrics.error(cause, 0);
+                postError(callback, t.toString());
+            }
+        };
+
+        EngineGate.getInstance().enqueue(new EngineGate.Call() {
+            @Override
+            public void run() {
+                if(request.isCanceled()) {
+                    metrics.error(ApiMetrics.ERROR_CANCELED, 0);
+                    return;
+                }
+                request.getCall().enqueue(responseCallback);
+            }
+
+            @Override
+            public void fail(@NonNull String error) {
+                if(request.isCanceled()) {
+                    metrics.error(ApiMetrics.ERROR_CANCELED, 0);
+                    return;
+                }
+                metrics.error(ApiMetrics.ERROR_CONNECT, 0);
                 if(callback != null) {
-                    callback.onError(t.toString());
+                    callback.onError(error);
                 }
             }
         });
+
+        return request;
+    }
+
+    /**
+     * Schedule next attempt of failed request.
+     *
+     * @return false if request should not be retried
+     */
+    private static boolean retry(@NonNull final CallRequest request, @NonNull final retrofit2.Callback<ResponseBody> callback) {
+        long delay = EngineGate.getInstance().getRetryDelay(request.nextAttempt());
+        if(delay < 0) {
+            return false;
+        }
+        Logger.v(TAG, "retry: attempt=" + request.getAttempts() + " delay=" + delay);
+        Workers.postOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                request.retry(callback);
+            }
+        }, delay);
+        return true;
+    }
+
+    // Response is parsed on the worker thread, result is delivered on the main thread
+    private static <T> void postSuccess(@Nullable final Callback<T> callback, final T result) {
+        if(callback == null) {
+            return;
+        }
+        Workers.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSuccess(result);
+            }
+        });
     }
 
-    private Retrofit createRetrofit() {
-        OkHttpClient httpClient = new OkHttpClient.Builder()
-                .connectionPool(mHttpConnectionPool )
-                .connectTimeout(240, TimeUnit.SECONDS)
-                .readTimeout(300, TimeUnit.SECONDS)
+    private static void postError(@Nullable final Callback<?> callback, final String error) {
+        if(callback == null) {
+            return;
+        }
+        Workers.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(error);
+            }
+        });
+    }
+
+    private Retrofit createRetrofit(@NonNull Deadline deadline) {
+        // Clients for all deadlines share connection pool and dispatcher of the base client
+        OkHttpClient httpClient = HttpClients.engine().newBuilder()
+                .connectTimeout(deadline.connectTimeout, TimeUnit.MILLISECONDS)
+                .readTimeout(deadline.readTimeout, TimeUnit.MILLISECONDS)
                 .build();
 
         return new Retrofit.Builder()
                 .baseUrl("http://" + mHost + ":" + mPort)
                 .client(httpClient)
+                // Body is streamed, so it must not be read on the main thread
+                .callbackExecutor(Workers.engineIo())
                 .addConverterFactory(GsonConverterFactory.create())
                 .build();
     }
 
-    private Retrofit getRetrofit() {
-        return mRetrofit;
+    private Retrofit getRetrofit(@NonNull String method) {
+        Deadline deadline = DEADLINES.get(method);
+        if(deadline == null) {
+            deadline = DEADLINE_DEFAULT;
+        }
+
+        synchronized (mRetrofits) {
+            Retrofit retrofit = mRetrofits.get(deadline);
+            if(retrofit == null) {
+                retrofit = createRetrofit(deadline);
+                mRetrofits.put(deadline, retrofit);
+            }
+            return retrofit;
+        }
+    }
+
+    private static class SimpleRequest implements Request {
+        private volatile boolean mCanceled = false;
+
+        @Override
+        public void cancel() {
+            mCanceled = true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return mCanceled;
+        }
+    }
+
+    private static class CallRequest extends SimpleRequest {
+        private Call<ResponseBody> mCall;
+        private int mAttempts = 0;
+
+        CallRequest(@NonNull Call<ResponseBody> call) {
+            mCall = call;
+        }
+
+        synchronized Call<ResponseBody> getCall() {
+            return mCall;
+        }
+
+        synchronized int nextAttempt() {
+            return ++mAttempts;
+        }
+
+        synchronized int getAttempts() {
+            return mAttempts;
+        }
+
+        /**
+         * Send the same request again. Call can be executed only once, so it's cloned.
+         */
+        void retry(@NonNull retrofit2.Callback<ResponseBody> callback) {
+            Call<ResponseBody> call;
+            synchronized (this) {
+                if(isCanceled()) {
+                    // callback reports cancellation
+                    call = null;
+                }
+                else {
+                    mCall = mCall.clone();
+                    call = mCall;
+                }
+            }
+            if(call == null) {
+                callback.onFailure(mCall, new IOException("Canceled"));
+            }
+            else {
+                call.enqueue(callback);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            // Closes connection, so engine stops processing the request
+            getCall().cancel();
+        }
+    }
+
+    /**
+     * get_media_files request superseded by the next request of the same owner.
+     */
+    private class OwnedMediaFilesRequest extends SimpleRequest implements Callback<MediaFilesResponse> {
+        private final Object mOwner;
+        private final Callback<MediaFilesResponse> mCallback;
+        // guarded by mOwnerRequests
+        Request request;
+        boolean finished = false;
+
+        OwnedMediaFilesRequest(@NonNull Object owner, @NonNull Callback<MediaFilesResponse> callback) {
+            mOwner = owner;
+            mCallback = callback;
+        }
+
+        @Override
+        public void onSuccess(MediaFilesResponse result) {
+            release();
+            mCallback.onSuccess(result);
+        }
+
+        @Override
+        public void onError(String err) {
+            release();
+            mCallback.onError(err);
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            Request request;
+            synchronized (mOwnerRequests) {
+                request = this.request;
+            }
+            release();
+            if(request != null) {
+                request.cancel();
+            }
+        }
+
+        private void release() {
+            synchronized (mOwnerRequests) {
+                finished = true;
+                if(mOwnerRequests.get(mOwner) == this) {
+                    mOwnerRequests.remove(mOwner);
+                }
+            }
+        }
     }
 
     public interface EngineApiService {
+        // Body is not buffered by retrofit, it's read by response adapters
+        @Streaming
         @GET
         Call<ResponseBody> apiCall(@Url String url, @QueryMap Map<String, String> params);
 
+        @Streaming
         @POST
         Call<ResponseBody> apiCallPost(@Url String url, @QueryMap Map<String, String> params, @Body RequestBody payload);
     }
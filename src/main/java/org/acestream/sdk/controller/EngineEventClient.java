@@ -0,0 +1,277 @@
+package org.acestream.sdk.controller;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.acestream.sdk.EngineEvent;
+import org.acestream.sdk.EngineSession;
+import org.acestream.sdk.interfaces.EngineEventListener;
+import org.acestream.sdk.utils.HttpClients;
+import org.acestream.sdk.utils.Logger;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Keeps long-lived connection to {@link EngineSession#eventUrl} and dispatches received events
+ * to listeners on the main thread.
+ *
+ * Engine may send events with long-poll (one event per response) or as a chunked stream of
+ * JSON values. Both are handled by reading JSON values from the socket one by one.
+ * Connection is restored with jittered exponential backoff.
+ *
+ * Connection is kept only while there are listeners.
+ */
+@SuppressWarnings("WeakerAccess")
+public class EngineEventClient {
+    private final static String TAG = "AS/EventClient";
+
+    private final static long BACKOFF_MIN = 500;
+    private final static long BACKOFF_MAX = 30000;
+
+    private final static OkHttpClient sHttpClient = HttpClients.engine().newBuilder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            // long-poll: reconnect when there are no events for a long time
+            .readTimeout(5, TimeUnit.MINUTES)
+            .build();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // listener -> event name (empty string for all events)
+    private final Map<EngineEventListener, String> mListeners = new ConcurrentHashMap<>();
+    private final Random mRandom = new Random();
+    private EngineSession mSession = null;
+    private Worker mWorker = null;
+
+    /**
+     * Add listener.
+     *
+     * @param eventName Name of events to receive, null for all events
+     */
+    public synchronized void addListener(@Nullable String eventName, @NonNull EngineEventListener listener) {
+        mListeners.put(listener, eventName == null ? "" : eventName);
+        updateWorker();
+    }
+
+    public synchronized void removeListener(@NonNull EngineEventListener listener) {
+        mListeners.remove(listener);
+        updateWorker();
+    }
+
+    /**
+     * Connect to event url of this session when there are listeners. Pass null to disconnect.
+     */
+    public synchronized void setSession(@Nullable EngineSession session) {
+        mSession = session;
+        updateWorker();
+    }
+
+    public synchronized void shutdown() {
+        mListeners.clear();
+        setSession(null);
+    }
+
+    private void updateWorker() {
+        String eventUrl = (mSession == null || mListeners.isEmpty()) ? null : mSession.eventUrl;
+        if(mWorker != null && TextUtils.equals(mWorker.mUrl, eventUrl)) {
+            return;
+        }
+
+        if(mWorker != null) {
+            mWorker.shutdown();
+            mWorker = null;
+        }
+
+        if(eventUrl != null) {
+            Logger.v(TAG, "connect: url=" + eventUrl);
+            mWorker = new Worker(eventUrl, mSession.playbackSessionId);
+            mWorker.start();
+        }
+    }
+
+    private void dispatch(@NonNull final EngineEvent event) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for(Map.Entry<EngineEventListener, String> item: mListeners.entrySet()) {
+                    String name = item.getValue();
+                    if(name.isEmpty() || TextUtils.equals(name, event.getName())) {
+                        item.getKey().onEngineEvent(event);
+                    }
+                }
+            }
+        });
+    }
+
+    private long getBackoff(int failures) {
+        long base = Math.min(BACKOFF_MAX, BACKOFF_MIN << Math.min(failures, 16));
+        // random delay in range [base/2, base)
+        return base / 2 + (long)(mRandom.nextDouble() * base / 2);
+    }
+
+    private class Worker extends Thread {
+        private final String mUrl;
+        private final String mPlaybackSessionId;
+        private volatile boolean mStopped = false;
+        private volatile Call mCall = null;
+        // Last connection got response headers
+        private boolean mEstablished = false;
+
+        Worker(@NonNull String url, @Nullable String playbackSessionId) {
+            super("EngineEventClient");
+            mUrl = url;
+            mPlaybackSessionId = playbackSessionId;
+        }
+
+        void shutdown() {
+            mStopped = true;
+            Call call = mCall;
+            if(call != null) {
+                call.cancel();
+            }
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            Request request;
+            try {
+                request = new Request.Builder().url(mUrl).build();
+            }
+            catch(IllegalArgumentException e) {
+                Log.e(TAG, "bad event url: " + mUrl);
+                return;
+            }
+
+            int failures = 0;
+            while(!mStopped) {
+                try {
+                    int count = readEvents(request);
+                    Logger.v(TAG, "connection finished: events=" + count);
+                    if(count > 0) {
+                        // Long-poll response finished: reconnect immediately
+                        failures = 0;
+                        continue;
+                    }
+                }
+                catch(SocketTimeoutException e) {
+                    if(mEstablished) {
+                        // No events for a long time
+                        failures = 0;
+                        continue;
+                    }
+                    // Connect timeout: engine is not reachable
+                    Logger.v(TAG, "connection failed: " + e.getMessage());
+                }
+                catch(IOException|JsonParseException|IllegalStateException e) {
+                    if(mStopped) {
+                        break;
+                    }
+                    Logger.v(TAG, "connection failed: " + e.getMessage());
+                }
+
+                try {
+                    Thread.sleep(getBackoff(failures++));
+                }
+                catch(InterruptedException e) {
+                    break;
+                }
+            }
+            Logger.v(TAG, "stopped: url=" + mUrl);
+        }
+
+        private int readEvents(@NonNull Request request) throws IOException {
+            Call call = sHttpClient.newCall(request);
+            mCall = call;
+            if(mStopped) {
+                call.cancel();
+            }
+
+            int count = 0;
+            mEstablished = false;
+            Response response = call.execute();
+            mEstablished = true;
+            try {
+                ResponseBody body = response.body();
+                if(!response.isSuccessful() || body == null) {
+                    throw new IOException("bad response: code=" + response.code());
+                }
+
+                JsonReader reader = new JsonReader(body.charStream());
+                // allow multiple top-level values
+                reader.setLenient(true);
+                JsonParser parser = new JsonParser();
+                while(!mStopped && reader.peek() != JsonToken.END_DOCUMENT) {
+                    JsonElement value = parser.parse(reader);
+                    EngineEvent event = toEvent(value);
+                    if(event != null) {
+                        count++;
+                        dispatch(event);
+                    }
+                }
+            }
+            finally {
+                response.close();
+                mCall = null;
+            }
+            return count;
+        }
+
+        @Nullable
+        private EngineEvent toEvent(@NonNull JsonElement value) {
+            if(!value.isJsonObject()) {
+                return null;
+            }
+            JsonObject root = value.getAsJsonObject();
+
+            // Unwrap {"response": {...}, "error": null}
+            JsonElement wrapped = root.get("response");
+            if(wrapped != null && wrapped.isJsonObject()) {
+                root = wrapped.getAsJsonObject();
+            }
+
+            String name = getString(root, "event");
+            if(name == null) {
+                name = getString(root, "name");
+            }
+            if(name == null) {
+                return null;
+            }
+
+            JsonElement params = root.get("params");
+            return new EngineEvent(
+                    name,
+                    (params != null && params.isJsonObject()) ? params.getAsJsonObject() : root,
+                    mPlaybackSessionId);
+        }
+
+        @Nullable
+        private String getString(@NonNull JsonObject obj, @NonNull String key) {
+            JsonElement value = obj.get(key);
+            if(value == null || !value.isJsonPrimitive()) {
+                return null;
+            }
+            return value.getAsString();
+        }
+    }
+}
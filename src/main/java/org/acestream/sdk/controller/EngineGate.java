@@ -0,0 +1,308 @@
+package org.acestream.sdk.controller;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.acestream.sdk.utils.Logger;
+import org.acestream.sdk.utils.Workers;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Controls when requests to local engine are sent.
+ *
+ * While engine is unpacking or starting requests are held in a bounded queue and sent when
+ * engine is connected. After repeated connection failures the circuit is opened and requests
+ * fail immediately until cooldown expires, then one probe request is let through.
+ */
+public class EngineGate {
+    private final static String TAG = "AS/EngineGate";
+
+    private final static int MAX_QUEUED = 64;
+    // How long request can wait for engine start
+    private final static long HOLD_TIMEOUT = 60000;
+
+    private final static int FAILURE_THRESHOLD = 5;
+    private final static long COOLDOWN_MIN = 5000;
+    private final static long COOLDOWN_MAX = 60000;
+
+    private final static long RETRY_DELAY_MIN = 500;
+    private final static long RETRY_DELAY_MAX = 4000;
+    public final static int MAX_RETRIES = 3;
+
+    public final static String ERROR_NOT_AVAILABLE = "engine is not available";
+    public final static String ERROR_START_TIMEOUT = "engine start timeout";
+    public final static String ERROR_QUEUE_FULL = "too many pending requests";
+
+    private final static int STATE_READY = 0;
+    private final static int STATE_STARTING = 1;
+
+    private final static int CIRCUIT_CLOSED = 0;
+    private final static int CIRCUIT_OPEN = 1;
+    private final static int CIRCUIT_HALF_OPEN = 2;
+
+    private final static EngineGate sInstance = new EngineGate();
+
+    /**
+     * Request waiting for the gate.
+     */
+    public interface Call {
+        /**
+         * Send request. Called on the thread which opened the gate.
+         */
+        void run();
+
+        /**
+         * Request was not sent. Called on the main thread.
+         */
+        void fail(@NonNull String error);
+    }
+
+    private static class QueuedCall {
+        final Call call;
+        final long deadline;
+
+        QueuedCall(Call call, long deadline) {
+            this.call = call;
+            this.deadline = deadline;
+        }
+    }
+
+    private final ArrayDeque<QueuedCall> mQueue = new ArrayDeque<>();
+    private int mState = STATE_READY;
+    private int mCircuit = CIRCUIT_CLOSED;
+    private int mConsecutiveFailures = 0;
+    private long mCooldown = COOLDOWN_MIN;
+    private long mOpenedAt = 0;
+    private boolean mProbeInFlight = false;
+    private long mProbeStartedAt = 0;
+
+    private final Runnable mExpireTask = new Runnable() {
+        @Override
+        public void run() {
+            expireQueued();
+        }
+    };
+
+    public static EngineGate getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Engine is unpacking or starting: hold new requests.
+     */
+    public void setStarting() {
+        synchronized (this) {
+            if(mState == STATE_STARTING) {
+                return;
+            }
+            Logger.v(TAG, "setStarting");
+            mState = STATE_STARTING;
+        }
+    }
+
+    /**
+     * Engine is connected: send held requests and reset circuit.
+     */
+    public void setConnected() {
+        List<QueuedCall> calls;
+        synchronized (this) {
+            Logger.v(TAG, "setConnected: queued=" + mQueue.size());
+            mState = STATE_READY;
+            resetCircuit();
+            calls = new ArrayList<>(mQueue);
+            mQueue.clear();
+        }
+        for(QueuedCall item: calls) {
+            item.call.run();
+        }
+    }
+
+    /**
+     * Engine failed to start or stopped: fail held requests.
+     */
+    public void setStopped() {
+        List<QueuedCall> calls;
+        synchronized (this) {
+            Logger.v(TAG, "setStopped: queued=" + mQueue.size());
+            mState = STATE_READY;
+            calls = new ArrayList<>(mQueue);
+            mQueue.clear();
+        }
+        for(QueuedCall item: calls) {
+            fail(item.call, ERROR_NOT_AVAILABLE);
+        }
+    }
+
+    /**
+     * Run request now, hold it until engine is started or fail it when circuit is open.
+     */
+    public void enqueue(@NonNull Call call) {
+        String error = null;
+        boolean run = false;
+        boolean scheduleExpire = false;
+        synchronized (this) {
+            if(!allowRequest()) {
+                error = ERROR_NOT_AVAILABLE;
+            }
+            else if(mState == STATE_READY) {
+                run = true;
+            }
+            else if(mQueue.size() >= MAX_QUEUED) {
+                error = ERROR_QUEUE_FULL;
+            }
+            else {
+                scheduleExpire = mQueue.isEmpty();
+                mQueue.addLast(new QueuedCall(call, SystemClock.elapsedRealtime() + HOLD_TIMEOUT));
+            }
+        }
+
+        if(run) {
+            call.run();
+        }
+        else if(error != null) {
+            Log.w(TAG, "enqueue: rejected: " + error);
+            fail(call, error);
+        }
+        else if(scheduleExpire) {
+            Workers.postOnMainThread(mExpireTask, HOLD_TIMEOUT);
+        }
+    }
+
+    /**
+     * @return true when circuit is open and requests fail without reaching engine
+     */
+    public synchronized boolean isCircuitOpen() {
+        return mCircuit == CIRCUIT_OPEN
+                && SystemClock.elapsedRealtime() - mOpenedAt < mCooldown;
+    }
+
+    /**
+     * Request reached engine.
+     */
+    public synchronized void reportSuccess() {
+        if(mCircuit != CIRCUIT_CLOSED) {
+            Logger.v(TAG, "circuit closed");
+        }
+        resetCircuit();
+    }
+
+    /**
+     * Request failed to reach engine.
+     */
+    public synchronized void reportFailure() {
+        mConsecutiveFailures++;
+        if(mCircuit == CIRCUIT_HALF_OPEN) {
+            // probe failed
+            mProbeInFlight = false;
+            mCooldown = Math.min(COOLDOWN_MAX, mCooldown * 2);
+            openCircuit();
+        }
+        else if(mCircuit == CIRCUIT_CLOSED && mConsecutiveFailures >= FAILURE_THRESHOLD) {
+            openCircuit();
+        }
+    }
+
+    /**
+     * Only connect-phase failures mean that engine is not reachable. Other errors (e.g. read
+     * timeout) may happen after request reached engine, so they are not counted and such
+     * requests are not retried.
+     *
+     * @return true if request failed before it was sent to engine
+     */
+    public static boolean isConnectFailure(@NonNull Throwable e) {
+        if(e instanceof ConnectException || e instanceof NoRouteToHostException) {
+            return true;
+        }
+        if(e instanceof SocketTimeoutException) {
+            // "connect timed out" or "failed to connect to ..."; read timeouts are different
+            String message = e.getMessage();
+            return message != null && message.toLowerCase(Locale.US).contains("connect");
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt Number of failed attempts, starting from 1
+     * @return delay before next attempt or -1 if request should not be retried
+     */
+    public long getRetryDelay(int attempt) {
+        if(attempt > MAX_RETRIES || isCircuitOpen()) {
+            return -1;
+        }
+        return Math.min(RETRY_DELAY_MAX, RETRY_DELAY_MIN << (attempt - 1));
+    }
+
+    private boolean allowRequest() {
+        if(mCircuit == CIRCUIT_CLOSED) {
+            return true;
+        }
+        if(mCircuit == CIRCUIT_OPEN) {
+            if(SystemClock.elapsedRealtime() - mOpenedAt < mCooldown) {
+                return false;
+            }
+            mCircuit = CIRCUIT_HALF_OPEN;
+            mProbeInFlight = false;
+        }
+        // Half-open: let single request through. Probe result may never be reported
+        // (e.g. it was canceled), so another probe is allowed after cooldown.
+        long now = SystemClock.elapsedRealtime();
+        if(mProbeInFlight && now - mProbeStartedAt < mCooldown) {
+            return false;
+        }
+        mProbeInFlight = true;
+        mProbeStartedAt = now;
+        return true;
+    }
+
+    private void openCircuit() {
+        Log.w(TAG, "circuit opened: failures=" + mConsecutiveFailures + " cooldown=" + mCooldown);
+        mCircuit = CIRCUIT_OPEN;
+        mOpenedAt = SystemClock.elapsedRealtime();
+    }
+
+    private void resetCircuit() {
+        mCircuit = CIRCUIT_CLOSED;
+        mConsecutiveFailures = 0;
+        mCooldown = COOLDOWN_MIN;
+        mProbeInFlight = false;
+    }
+
+    private void expireQueued() {
+        List<QueuedCall> expired = new ArrayList<>();
+        long next = -1;
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            while(!mQueue.isEmpty() && mQueue.peekFirst().deadline <= now) {
+                expired.add(mQueue.pollFirst());
+            }
+            if(!mQueue.isEmpty()) {
+                next = mQueue.peekFirst().deadline - now;
+            }
+        }
+
+        for(QueuedCall item: expired) {
+            fail(item.call, ERROR_START_TIMEOUT);
+        }
+        if(next != -1) {
+            Workers.postOnMainThread(mExpireTask, next);
+        }
+    }
+
+    private static void fail(@NonNull final Call call, @NonNull final String error) {
+        Workers.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                call.fail(error);
+            }
+        });
+    }
+}
@@ -0,0 +1,179 @@
+package org.acestream.sdk.controller;
+
+import android.os.Bundle;
+
+import org.acestream.sdk.controller.api.AceStreamPreferences;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * In-memory copy of engine settings.
+ *
+ * Settings are replaced as a whole when engine sends them and patched locally when client
+ * changes them. Every change produces new snapshot with increased version. Snapshot is never
+ * modified in place and is never handed out: readers get a copy.
+ *
+ * Local patches are kept until a fetch which was started after them completes. Settings
+ * received before that (stale fetch or unsolicited update) get pending patches re-applied,
+ * so they don't overwrite newer local changes.
+ */
+public class EngineSettingsStore {
+    private final Object mLock = new Object();
+    private volatile AceStreamPreferences mSnapshot = new AceStreamPreferences();
+    private long mVersion = 0;
+    // Whether snapshot reflects the latest settings from engine
+    private boolean mValid = false;
+    private boolean mFetching = false;
+    // Version at the moment when current fetch was started
+    private long mFetchVersion = 0;
+    private final List<Patch> mPendingPatches = new ArrayList<>();
+
+    private static class Patch {
+        final long version;
+        final Bundle changes;
+
+        Patch(long version, @NonNull Bundle changes) {
+            this.version = version;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * @return copy of current snapshot, possibly stale
+     */
+    @NonNull
+    public AceStreamPreferences current() {
+        return copy(mSnapshot);
+    }
+
+    /**
+     * @return copy of current snapshot or null if settings must be fetched from engine
+     */
+    @Nullable
+    public AceStreamPreferences getIfValid() {
+        synchronized (mLock) {
+            return mValid ? copy(mSnapshot) : null;
+        }
+    }
+
+    // Single value reads don't need a copy of the whole snapshot
+
+    @Nullable
+    public String getString(@NonNull String key, @Nullable String defaultValue) {
+        return mSnapshot.getString(key, defaultValue);
+    }
+
+    public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+        return mSnapshot.getBoolean(key, defaultValue);
+    }
+
+    public long getVersion() {
+        synchronized (mLock) {
+            return mVersion;
+        }
+    }
+
+    /**
+     * Replace settings with ones received from engine.
+     * Local patches which engine may not have seen yet are applied on top.
+     */
+    public void set(@NonNull AceStreamPreferences preferences) {
+        synchronized (mLock) {
+            // Copy to detach from the bundle owned by caller
+            AceStreamPreferences snapshot = copy(preferences);
+            Iterator<Patch> it = mPendingPatches.iterator();
+            while(it.hasNext()) {
+                Patch patch = it.next();
+                if(mFetching && patch.version <= mFetchVersion) {
+                    // Fetch was started after this patch: engine already has it
+                    it.remove();
+                }
+                else {
+                    apply(snapshot, patch.changes);
+                }
+            }
+            mSnapshot = snapshot;
+            mVersion++;
+            mValid = true;
+            mFetching = false;
+        }
+    }
+
+    /**
+     * Apply local changes. Changes are expected to be confirmed by engine later.
+     */
+    public void patch(@NonNull Bundle changes) {
+        synchronized (mLock) {
+            AceStreamPreferences snapshot = copy(mSnapshot);
+            Bundle copy = new Bundle(changes);
+            apply(snapshot, copy);
+            mSnapshot = snapshot;
+            mVersion++;
+            mPendingPatches.add(new Patch(mVersion, copy));
+        }
+    }
+
+    public void patch(@NonNull String key, @Nullable Object value) {
+        Bundle changes = new Bundle(1);
+        if(value == null) {
+            changes.putString(key, null);
+        }
+        else if(value instanceof String) {
+            changes.putString(key, (String) value);
+        }
+        else if(value instanceof Boolean) {
+            changes.putBoolean(key, (Boolean) value);
+        }
+        else {
+            throw new IllegalStateException("String or boolean expected: value=" + value);
+        }
+        patch(changes);
+    }
+
+    /**
+     * Settings were changed outside: next read must go to engine.
+     */
+    public void invalidate() {
+        synchronized (mLock) {
+            mValid = false;
+        }
+    }
+
+    /**
+     * @return true if caller must fetch settings, false if fetch is already in progress
+     */
+    public boolean beginFetch() {
+        synchronized (mLock) {
+            if(mFetching) {
+                return false;
+            }
+            mFetching = true;
+            mFetchVersion = mVersion;
+            return true;
+        }
+    }
+
+    /**
+     * Forget pending fetch (e.g. connection to engine was lost).
+     */
+    public void cancelFetch() {
+        synchronized (mLock) {
+            mFetching = false;
+        }
+    }
+
+    @NonNull
+    private static AceStreamPreferences copy(@NonNull AceStreamPreferences preferences) {
+        return new AceStreamPreferences(new Bundle(preferences.getAll()));
+    }
+
+    private static void apply(@NonNull AceStreamPreferences preferences, @NonNull Bundle changes) {
+        // null value reads as missing key, same as AceStreamPreferences.put(key, null)
+        preferences.getAll().putAll(changes);
+    }
+}
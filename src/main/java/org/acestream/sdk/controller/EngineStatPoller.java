@@ -0,0 +1,418 @@
+package org.acestream.sdk.controller;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.acestream.sdk.EngineSession;
+import org.acestream.sdk.EngineStatus;
+import org.acestream.sdk.interfaces.EngineStatusListener;
+import org.acestream.sdk.utils.HttpClients;
+import org.acestream.sdk.utils.Logger;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Polls engine statistics from {@link EngineSession#statUrl} and publishes parsed
+ * {@link EngineStatus} to listeners on the main thread.
+ *
+ * Engine is polled often while prebuffering and less often during steady playback.
+ * Polling is paused while there are no listeners or the screen is off.
+ */
+@SuppressWarnings("WeakerAccess")
+public class EngineStatPoller {
+    private final static String TAG = "AS/StatPoller";
+
+    private final static long INTERVAL_FAST = 500;
+    private final static long INTERVAL_MIN = 1000;
+    private final static long INTERVAL_MAX = 5000;
+    private final static float BACKOFF_FACTOR = 1.5f;
+
+    private final static OkHttpClient sHttpClient = HttpClients.engine().newBuilder()
+            .connectTimeout(5, TimeUnit.SECONDS)
+            .readTimeout(5, TimeUnit.SECONDS)
+            .build();
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Set<EngineStatusListener> mListeners = new CopyOnWriteArraySet<>();
+
+    // All fields are accessed on the main thread
+    private String mStatUrl = null;
+    private String mPlaybackSessionId = null;
+    private int mClientSessionId = -1;
+    private Call mCall = null;
+    private boolean mRunning = false;
+    private boolean mScreenOn = true;
+    private long mInterval = INTERVAL_FAST;
+    private EngineStatus mLastStatus = null;
+
+    private final Runnable mPollTask = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+        }
+    };
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if(intent == null) return;
+            if(TextUtils.equals(intent.getAction(), Intent.ACTION_SCREEN_ON)) {
+                setScreenOn(true);
+            }
+            else if(TextUtils.equals(intent.getAction(), Intent.ACTION_SCREEN_OFF)) {
+                setScreenOn(false);
+            }
+        }
+    };
+
+    public EngineStatPoller(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public void addListener(@NonNull EngineStatusListener listener) {
+        mListeners.add(listener);
+        updateState();
+    }
+
+    public void removeListener(@NonNull EngineStatusListener listener) {
+        mListeners.remove(listener);
+        updateState();
+    }
+
+    /**
+     * Start polling stat url of this session. Pass null to stop polling.
+     */
+    public void setSession(@Nullable EngineSession session) {
+        String statUrl = (session == null) ? null : session.statUrl;
+        if(TextUtils.equals(statUrl, mStatUrl)) {
+            return;
+        }
+
+        Logger.v(TAG, "setSession: url=" + statUrl);
+        cancelPoll();
+        mStatUrl = statUrl;
+        mPlaybackSessionId = (session == null) ? null : session.playbackSessionId;
+        mClientSessionId = (session == null) ? -1 : session.clientSessionId;
+        mLastStatus = null;
+        mInterval = INTERVAL_FAST;
+        updateState();
+    }
+
+    /**
+     * @return last received status or null
+     */
+    @Nullable
+    public EngineStatus getLastStatus() {
+        return mLastStatus;
+    }
+
+    public void shutdown() {
+        mListeners.clear();
+        mStatUrl = null;
+        updateState();
+    }
+
+    private void updateState() {
+        boolean running = mStatUrl != null && mListeners.size() > 0;
+        if(running == mRunning) {
+            return;
+        }
+        mRunning = running;
+
+        if(running) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            mContext.registerReceiver(mScreenReceiver, filter);
+            mScreenOn = isScreenOn();
+            schedulePoll(0);
+        }
+        else {
+            mContext.unregisterReceiver(mScreenReceiver);
+            cancelPoll();
+        }
+    }
+
+    private void setScreenOn(boolean on) {
+        if(on == mScreenOn) {
+            return;
+        }
+        Logger.v(TAG, "screen: on=" + on);
+        mScreenOn = on;
+        if(on) {
+            mInterval = INTERVAL_FAST;
+            schedulePoll(0);
+        }
+        else {
+            cancelPoll();
+        }
+    }
+
+    private void schedulePoll(long delay) {
+        mHandler.removeCallbacks(mPollTask);
+        if(mRunning && mScreenOn && mCall == null) {
+            mHandler.postDelayed(mPollTask, delay);
+        }
+    }
+
+    private void cancelPoll() {
+        mHandler.removeCallbacks(mPollTask);
+        if(mCall != null) {
+            mCall.cancel();
+            mCall = null;
+        }
+    }
+
+    private void poll() {
+        if(!mRunning || !mScreenOn || mStatUrl == null || mCall != null) {
+            return;
+        }
+
+        final String statUrl = mStatUrl;
+        Request request;
+        try {
+            request = new Request.Builder().url(statUrl).build();
+        }
+        catch(IllegalArgumentException e) {
+            Log.e(TAG, "poll: bad stat url: " + statUrl);
+            return;
+        }
+
+        final Call call = sHttpClient.newCall(request);
+        mCall = call;
+        call.enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                if(!call.isCanceled()) {
+                    Logger.v(TAG, "poll: failed: " + e.getMessage());
+                }
+                onPollFinished(call, null);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                EngineStatus status = null;
+                ResponseBody body = response.body();
+                try {
+                    if(response.isSuccessful() && body != null) {
+                        JsonReader reader = new JsonReader(body.charStream());
+                        reader.setLenient(true);
+                        status = parseResponse(reader);
+                    }
+                }
+                catch(IOException|IllegalStateException|NumberFormatException e) {
+                    Log.e(TAG, "poll: failed to parse response: " + e.getMessage());
+                }
+                finally {
+                    response.close();
+                }
+                onPollFinished(call, status);
+            }
+        });
+    }
+
+    private void onPollFinished(final Call call, final EngineStatus status) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(call != mCall) {
+                    // canceled or retargeted
+                    return;
+                }
+                mCall = null;
+
+                if(status != null) {
+                    status.playbackSessionId = mPlaybackSessionId;
+                    status.clientSessionId = mClientSessionId;
+                    updateInterval(status);
+                    mLastStatus = status;
+                    for(EngineStatusListener listener: mListeners) {
+                        listener.onEngineStatus(status, null);
+                    }
+                }
+                else {
+                    mInterval = INTERVAL_MIN;
+                }
+
+                schedulePoll(mInterval);
+            }
+        });
+    }
+
+    private void updateInterval(@NonNull EngineStatus status) {
+        if(TextUtils.equals(status.status, "prebuf") || TextUtils.equals(status.status, "check")) {
+            mInterval = INTERVAL_FAST;
+        }
+        else if(mLastStatus == null || !TextUtils.equals(mLastStatus.status, status.status)) {
+            mInterval = INTERVAL_MIN;
+        }
+        else {
+            mInterval = Math.min(INTERVAL_MAX, (long)(mInterval * BACKOFF_FACTOR));
+        }
+    }
+
+    private boolean isScreenOn() {
+        PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        if(pm == null) {
+            return true;
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return pm.isInteractive();
+        }
+        else {
+            //noinspection deprecation
+            return pm.isScreenOn();
+        }
+    }
+
+    /**
+     * Parse stat response: {"response": {...}, "error": null}
+     */
+    @Nullable
+    private static EngineStatus parseResponse(@NonNull JsonReader in) throws IOException {
+        EngineStatus status = null;
+        String error = null;
+        in.beginObject();
+        while(in.hasNext()) {
+            switch(in.nextName()) {
+                case "response":
+                case "result":
+                    if(in.peek() == JsonToken.BEGIN_OBJECT) {
+                        status = parseStatus(in);
+                    }
+                    else {
+                        in.skipValue();
+                    }
+                    break;
+                case "error":
+                    if(in.peek() == JsonToken.STRING) {
+                        error = in.nextString();
+                    }
+                    else {
+                        in.skipValue();
+                    }
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if(error != null) {
+            return EngineStatus.error(error);
+        }
+        return status;
+    }
+
+    @NonNull
+    private static EngineStatus parseStatus(@NonNull JsonReader in) throws IOException {
+        EngineStatus status = new EngineStatus();
+        in.beginObject();
+        while(in.hasNext()) {
+            String name = in.nextName();
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch(name) {
+                case "status":
+                    status.status = in.nextString();
+                    break;
+                case "progress":
+                    status.progress = in.nextInt();
+                    break;
+                case "peers":
+                    status.peers = in.nextInt();
+                    break;
+                case "speed_down":
+                    status.speedDown = in.nextInt();
+                    break;
+                case "speed_up":
+                    status.speedUp = in.nextInt();
+                    break;
+                case "is_live":
+                    status.isLive = in.peek() == JsonToken.BOOLEAN
+                            ? (in.nextBoolean() ? 1 : 0)
+                            : in.nextInt();
+                    break;
+                case "livepos":
+                    if(in.peek() == JsonToken.BEGIN_OBJECT) {
+                        status.livePos = parseLivePosition(in);
+                    }
+                    else {
+                        in.skipValue();
+                    }
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return status;
+    }
+
+    @NonNull
+    private static EngineStatus.LivePosition parseLivePosition(@NonNull JsonReader in) throws IOException {
+        EngineStatus.LivePosition livePos = new EngineStatus.LivePosition();
+        in.beginObject();
+        while(in.hasNext()) {
+            String name = in.nextName();
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch(name) {
+                case "first":
+                    livePos.first = in.nextInt();
+                    break;
+                case "last":
+                    livePos.last = in.nextInt();
+                    break;
+                case "pos":
+                    livePos.pos = in.nextInt();
+                    break;
+                case "first_ts":
+                    livePos.firstTimestamp = in.nextInt();
+                    break;
+                case "last_ts":
+                    livePos.lastTimestamp = in.nextInt();
+                    break;
+                case "buffer_pieces":
+                    livePos.bufferPieces = in.nextInt();
+                    break;
+                case "is_live":
+                    livePos.isLive = in.peek() == JsonToken.BOOLEAN
+                            ? in.nextBoolean()
+                            : in.nextInt() != 0;
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return livePos;
+    }
+}
@@ -0,0 +1,158 @@
+package org.acestream.sdk.controller;
+
+import android.os.SystemClock;
+
+import org.acestream.engine.controller.Callback;
+import org.acestream.sdk.controller.api.response.MediaFilesResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Coalesces concurrent get_media_files requests for the same content and keeps
+ * recent responses in a bounded LRU cache with TTL.
+ *
+ * Cached responses don't hold transport file data, which may be several MB.
+ */
+class MediaFilesCache {
+    private final long mTtl;
+    private final Map<String, Group> mInFlight = new HashMap<>();
+    private final LinkedHashMap<String, Entry> mCompleted;
+
+    private static class Entry {
+        final MediaFilesResponse response;
+        final long createdAt;
+
+        Entry(MediaFilesResponse response) {
+            this.response = response;
+            this.createdAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    // Callbacks waiting for one request
+    private static class Group {
+        final List<Callback<MediaFilesResponse>> waiters = new ArrayList<>(1);
+        EngineApi.Request request;
+    }
+
+    MediaFilesCache(final int maxEntries, long ttl) {
+        mTtl = ttl;
+        mCompleted = new LinkedHashMap<String, Entry>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Nullable
+    synchronized MediaFilesResponse get(@NonNull String key) {
+        Entry entry = mCompleted.get(key);
+        if(entry == null) {
+            return null;
+        }
+
+        if(SystemClock.elapsedRealtime() - entry.createdAt > mTtl) {
+            mCompleted.remove(key);
+            return null;
+        }
+
+        return entry.response;
+    }
+
+    /**
+     * Register callback for the key.
+     *
+     * @return true if there is no request in flight for this key and caller must start it
+     */
+    synchronized boolean join(@NonNull String key, @NonNull Callback<MediaFilesResponse> callback) {
+        Group group = mInFlight.get(key);
+        if(group == null) {
+            group = new Group();
+            group.waiters.add(callback);
+            mInFlight.put(key, group);
+            return true;
+        }
+
+        group.waiters.add(callback);
+        return false;
+    }
+
+    /**
+     * Attach started request to the group.
+     *
+     * @return false if all waiters have left the group and request must be canceled
+     */
+    synchronized boolean attach(@NonNull String key, @NonNull EngineApi.Request request) {
+        Group group = mInFlight.get(key);
+        if(group == null) {
+            return false;
+        }
+        group.request = request;
+        return true;
+    }
+
+    /**
+     * Unregister callback for the key.
+     *
+     * @return request which must be canceled because nobody waits for it, or null
+     */
+    @Nullable
+    synchronized EngineApi.Request leave(@NonNull String key, @NonNull Callback<MediaFilesResponse> callback) {
+        Group group = mInFlight.get(key);
+        if(group == null || !group.waiters.remove(callback) || !group.waiters.isEmpty()) {
+            return null;
+        }
+        mInFlight.remove(key);
+        return group.request;
+    }
+
+    /**
+     * Finish request for the key.
+     *
+     * @param response response to cache, null on error
+     * @return callbacks waiting for this request
+     */
+    @NonNull
+    synchronized List<Callback<MediaFilesResponse>> complete(@NonNull String key, @Nullable MediaFilesResponse response) {
+        if(response != null) {
+            mCompleted.put(key, new Entry(copy(response, null)));
+        }
+
+        Group group = mInFlight.remove(key);
+        if(group == null) {
+            return Collections.emptyList();
+        }
+        return group.waiters;
+    }
+
+    synchronized void invalidate(@NonNull String key) {
+        mCompleted.remove(key);
+    }
+
+    synchronized void clear() {
+        mCompleted.clear();
+    }
+
+    /**
+     * Shallow copy of response with given transport file data.
+     */
+    @NonNull
+    static MediaFilesResponse copy(@NonNull MediaFilesResponse response, @Nullable String transportFileData) {
+        MediaFilesResponse copy = new MediaFilesResponse();
+        copy.transport_file_data = transportFileData;
+        copy.transport_file_cache_key = response.transport_file_cache_key;
+        copy.infohash = response.infohash;
+        copy.name = response.name;
+        copy.files = response.files;
+        copy.wrapper_data = response.wrapper_data;
+        return copy;
+    }
+}
@@ -0,0 +1,481 @@
+package org.acestream.sdk.controller;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.acestream.engine.controller.Callback;
+import org.acestream.sdk.AceStream;
+import org.acestream.sdk.controller.api.TransportFileDescriptor;
+import org.acestream.sdk.controller.api.response.MediaFilesResponse;
+import org.acestream.sdk.utils.Logger;
+import org.acestream.sdk.utils.Workers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Persistent index of get_media_files responses.
+ *
+ * Entries are keyed by infohash and can be found by transport file cache key or by canonical
+ * descriptor key. Only file lists are stored (no transport file data). Index is kept in a single
+ * binary file, limited by size budget with LRU eviction.
+ */
+@SuppressWarnings("WeakerAccess")
+public class MediaFilesIndex {
+    private final static String TAG = "AS/MediaFilesIndex";
+
+    private final static int MAGIC = 0x41534d46;
+    private final static int VERSION = 1;
+    private final static String FILENAME = "media_files.idx";
+    private final static int DEFAULT_SIZE_BUDGET = 256 * 1024;
+
+    /**
+     * Callback for background refresh: response is saved to index by {@link EngineApi}.
+     */
+    public final static Callback<MediaFilesResponse> REFRESH_CALLBACK = new Callback<MediaFilesResponse>() {
+        @Override
+        public void onSuccess(MediaFilesResponse result) {
+        }
+
+        @Override
+        public void onError(String err) {
+            Logger.v(TAG, "refresh failed: " + err);
+        }
+    };
+
+    private static MediaFilesIndex sInstance = null;
+
+    private final File mFile;
+    private final int mSizeBudget;
+    private final Executor mExecutor = Workers.disk();
+    // Saves may run concurrently on disk pool
+    private final Object mFileLock = new Object();
+    // infohash -> entry, eldest first
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    // infohash, cache key or descriptor key -> infohash
+    private final Map<String, String> mKeys = new HashMap<>();
+    private int mTotalSize = 0;
+    private boolean mLoaded = false;
+    private boolean mSavePending = false;
+    private boolean mSaveAfterLoad = false;
+
+    private static class Entry {
+        String infohash;
+        String cacheKey;
+        String name;
+        List<String> aliases = new ArrayList<>(1);
+        MediaFilesResponse.MediaFile[] files;
+        int size;
+    }
+
+    public static synchronized MediaFilesIndex getInstance() {
+        if(sInstance == null) {
+            sInstance = new MediaFilesIndex(
+                    new File(AceStream.getAppFilesDir("cache", true), FILENAME),
+                    DEFAULT_SIZE_BUDGET);
+        }
+        return sInstance;
+    }
+
+    private MediaFilesIndex(@NonNull File file, int sizeBudget) {
+        mFile = file;
+        mSizeBudget = sizeBudget;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Find indexed response for this descriptor.
+     * Returned response has no transport file data. Files are copied, so caller may modify them.
+     *
+     * @return response or null if not found or index is not loaded yet
+     */
+    @Nullable
+    public synchronized MediaFilesResponse get(@NonNull TransportFileDescriptor descriptor) {
+        Entry entry = findEntry(descriptor.getCanonicalKey());
+        if(entry == null) {
+            entry = findEntry(descriptor.getInfohash());
+        }
+        if(entry == null) {
+            entry = findEntry(descriptor.getCacheKey());
+        }
+        if(entry == null) {
+            return null;
+        }
+
+        MediaFilesResponse response = new MediaFilesResponse();
+        response.infohash = entry.infohash;
+        response.transport_file_cache_key = entry.cacheKey;
+        response.name = entry.name;
+        response.files = copyFiles(entry.files);
+        return response;
+    }
+
+    public void put(@NonNull TransportFileDescriptor descriptor, @NonNull MediaFilesResponse response) {
+        if(TextUtils.isEmpty(response.infohash) || response.files == null) {
+            return;
+        }
+
+        // Detach from response which is also passed to caller
+        MediaFilesResponse.MediaFile[] files = copyFiles(response.files);
+
+        synchronized (this) {
+            Entry entry = mEntries.get(response.infohash);
+            if(entry != null) {
+                removeEntry(entry);
+            }
+            else {
+                entry = new Entry();
+                entry.infohash = response.infohash;
+            }
+
+            entry.cacheKey = response.transport_file_cache_key;
+            entry.name = response.name;
+            entry.files = files;
+
+            String key = descriptor.getCanonicalKey();
+            if(key != null && !entry.aliases.contains(key)) {
+                entry.aliases.add(key);
+            }
+
+            // Keys may have moved from other entries (e.g. content changed)
+            detachKey(entry.cacheKey, entry);
+            for(String alias: entry.aliases) {
+                detachKey(alias, entry);
+            }
+
+            addEntry(entry);
+            trim();
+        }
+
+        scheduleSave();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mKeys.clear();
+        mTotalSize = 0;
+        scheduleSave();
+    }
+
+    @Nullable
+    private Entry findEntry(@Nullable String key) {
+        if(key == null) {
+            return null;
+        }
+        String infohash = mKeys.get(key);
+        if(infohash == null) {
+            return null;
+        }
+        return mEntries.get(infohash);
+    }
+
+    /**
+     * Remove key from entry which owns it, so removal of that entry doesn't drop new mapping.
+     */
+    private void detachKey(@Nullable String key, @NonNull Entry newOwner) {
+        Entry owner = findEntry(key);
+        if(owner == null || owner == newOwner) {
+            return;
+        }
+        if(TextUtils.equals(owner.cacheKey, key)) {
+            owner.cacheKey = null;
+        }
+        owner.aliases.remove(key);
+        mKeys.remove(key);
+        mTotalSize -= owner.size;
+        owner.size = estimateSize(owner);
+        mTotalSize += owner.size;
+    }
+
+    private void addEntry(@NonNull Entry entry) {
+        entry.size = estimateSize(entry);
+        mEntries.put(entry.infohash, entry);
+        mKeys.put(entry.infohash, entry.infohash);
+        if(entry.cacheKey != null) {
+            mKeys.put(entry.cacheKey, entry.infohash);
+        }
+        for(String alias: entry.aliases) {
+            mKeys.put(alias, entry.infohash);
+        }
+        mTotalSize += entry.size;
+    }
+
+    private void removeEntry(@NonNull Entry entry) {
+        mEntries.remove(entry.infohash);
+        mKeys.remove(entry.infohash);
+        if(entry.cacheKey != null) {
+            mKeys.remove(entry.cacheKey);
+        }
+        for(String alias: entry.aliases) {
+            mKeys.remove(alias);
+        }
+        mTotalSize -= entry.size;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while(mTotalSize > mSizeBudget && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            mKeys.remove(eldest.infohash);
+            if(eldest.cacheKey != null) {
+                mKeys.remove(eldest.cacheKey);
+            }
+            for(String alias: eldest.aliases) {
+                mKeys.remove(alias);
+            }
+            mTotalSize -= eldest.size;
+            Logger.v(TAG, "trim: evict " + eldest.infohash);
+        }
+    }
+
+    private static int estimateSize(@NonNull Entry entry) {
+        // Approximate size in file: strings are stored as modified UTF-8 with 2-byte length
+        int size = 8 + strSize(entry.infohash) + strSize(entry.cacheKey) + strSize(entry.name);
+        for(String alias: entry.aliases) {
+            size += strSize(alias);
+        }
+        for(MediaFilesResponse.MediaFile mf: entry.files) {
+            size += 12 + strSize(mf.infohash) + strSize(mf.mime) + strSize(mf.type)
+                    + strSize(mf.filename) + strSize(mf.transport_type);
+        }
+        return size;
+    }
+
+    @NonNull
+    private static MediaFilesResponse.MediaFile[] copyFiles(@NonNull MediaFilesResponse.MediaFile[] files) {
+        MediaFilesResponse.MediaFile[] copy = new MediaFilesResponse.MediaFile[files.length];
+        for(int i = 0; i < files.length; i++) {
+            MediaFilesResponse.MediaFile src = files[i];
+            MediaFilesResponse.MediaFile mf = new MediaFilesResponse.MediaFile();
+            mf.infohash = src.infohash;
+            mf.type = src.type;
+            mf.filename = src.filename;
+            mf.mime = src.mime;
+            mf.transport_type = src.transport_type;
+            mf.index = src.index;
+            mf.size = src.size;
+            copy[i] = mf;
+        }
+        return copy;
+    }
+
+    private static int strSize(@Nullable String value) {
+        return 2 + (value == null ? 0 : value.length());
+    }
+
+    private void scheduleSave() {
+        synchronized (this) {
+            if(mSavePending) {
+                return;
+            }
+            mSavePending = true;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    private void load() {
+        List<Entry> entries = new ArrayList<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if(in.readInt() != MAGIC) {
+                throw new IOException("bad magic");
+            }
+            int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("unsupported version: " + version);
+            }
+
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                Entry entry = new Entry();
+                entry.infohash = in.readUTF();
+                entry.cacheKey = readOptString(in);
+                entry.name = readOptString(in);
+                int aliasCount = in.readShort();
+                for(int j = 0; j < aliasCount; j++) {
+                    entry.aliases.add(in.readUTF());
+                }
+                int fileCount = in.readInt();
+                entry.files = new MediaFilesResponse.MediaFile[fileCount];
+                for(int j = 0; j < fileCount; j++) {
+                    MediaFilesResponse.MediaFile mf = new MediaFilesResponse.MediaFile();
+                    mf.index = in.readInt();
+                    mf.size = in.readLong();
+                    mf.infohash = readOptString(in);
+                    if(mf.infohash == null) {
+                        mf.infohash = entry.infohash;
+                    }
+                    mf.mime = readOptString(in);
+                    mf.type = readOptString(in);
+                    mf.filename = readOptString(in);
+                    mf.transport_type = readOptString(in);
+                    entry.files[j] = mf;
+                }
+                entries.add(entry);
+            }
+        }
+        catch(FileNotFoundException e) {
+            // no index yet
+        }
+        catch(IOException e) {
+            Log.e(TAG, "load: failed to read index: " + e.getMessage());
+            entries.clear();
+        }
+        finally {
+            if(in != null) {
+                try {
+                    in.close();
+                }
+                catch(IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        boolean saveNow;
+        synchronized (this) {
+            // Entries added before load are newer
+            for(Entry entry: entries) {
+                if(!mEntries.containsKey(entry.infohash)) {
+                    if(entry.cacheKey != null && mKeys.containsKey(entry.cacheKey)) {
+                        entry.cacheKey = null;
+                    }
+                    Iterator<String> aliases = entry.aliases.iterator();
+                    while(aliases.hasNext()) {
+                        if(mKeys.containsKey(aliases.next())) {
+                            aliases.remove();
+                        }
+                    }
+                    addEntry(entry);
+                }
+            }
+            trim();
+            mLoaded = true;
+            saveNow = mSaveAfterLoad;
+            Logger.v(TAG, "load: entries=" + mEntries.size() + " size=" + mTotalSize);
+        }
+
+        if(saveNow) {
+            scheduleSave();
+        }
+    }
+
+    private void save() {
+        // Serialize and write under one lock, so older snapshot never overwrites newer one
+        synchronized (mFileLock) {
+            byte[] data = serialize();
+            if(data != null) {
+                write(data);
+            }
+        }
+    }
+
+    @Nullable
+    private byte[] serialize() {
+        byte[] data;
+        synchronized (this) {
+            mSavePending = false;
+            if(!mLoaded) {
+                // Will be saved with loaded entries after load
+                mSaveAfterLoad = true;
+                return null;
+            }
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(mTotalSize + 64);
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(mEntries.size());
+                for(Entry entry: mEntries.values()) {
+                    out.writeUTF(entry.infohash);
+                    writeOptString(out, entry.cacheKey);
+                    writeOptString(out, entry.name);
+                    out.writeShort(entry.aliases.size());
+                    for(String alias: entry.aliases) {
+                        out.writeUTF(alias);
+                    }
+                    out.writeInt(entry.files.length);
+                    for(MediaFilesResponse.MediaFile mf: entry.files) {
+                        out.writeInt(mf.index);
+                        out.writeLong(mf.size);
+                        writeOptString(out, TextUtils.equals(mf.infohash, entry.infohash) ? null : mf.infohash);
+                        writeOptString(out, mf.mime);
+                        writeOptString(out, mf.type);
+                        writeOptString(out, mf.filename);
+                        writeOptString(out, mf.transport_type);
+                    }
+                }
+                out.flush();
+                data = bytes.toByteArray();
+            }
+            catch(IOException e) {
+                Log.e(TAG, "save: failed to serialize index", e);
+                return null;
+            }
+        }
+        return data;
+    }
+
+    private void write(@NonNull byte[] data) {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                out.write(data);
+            }
+            finally {
+                out.close();
+            }
+            if(!tmp.renameTo(mFile)) {
+                throw new IOException("failed to rename " + tmp);
+            }
+        }
+        catch(IOException e) {
+            Log.e(TAG, "save: failed to write index: " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+
+    @Nullable
+    private static String readOptString(@NonNull DataInputStream in) throws IOException {
+        String value = in.readUTF();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static void writeOptString(@NonNull DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeUTF(value == null ? "" : value);
+    }
+}
@@ -3,6 +3,7 @@ package org.acestream.sdk.controller.api;
 import android.content.ContentResolver;
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Log;
@@ -234,6 +235,35 @@ public class TransportFileDescriptor {
         return ds;
     }
 
+    /**
+     * Get key which identifies content described by this descriptor.
+     * Descriptors pointing to the same content have the same key.
+     *
+     * @return key or null when descriptor cannot be identified (e.g. in-memory transport file
+     * without local path)
+     */
+    @Nullable
+    public String getCanonicalKey() {
+        if(mContentId != null) {
+            return "content_id:" + mContentId.toLowerCase(Locale.ROOT);
+        }
+        else if(mInfohash != null) {
+            return "infohash:" + mInfohash.toLowerCase(Locale.ROOT);
+        }
+        else if(mMagnet != null) {
+            return "magnet:" + mMagnet;
+        }
+        else if(mUrl != null) {
+            return "url:" + mUrl;
+        }
+        else if(mLocalPath != null) {
+            return "data:" + mLocalPath;
+        }
+        else {
+            return null;
+        }
+    }
+
     public Uri getMrl(int fileIndex) {
         return Uri.parse("acestream:?" + getDescriptorString() + "&index=" + fileIndex);
     }
@@ -319,9 +349,16 @@ public class TransportFileDescriptor {
     }
 
     public String getQueryString() {
+        return getQueryString(shouldPost());
+    }
+
+    /**
+     * @param post Whether transport file is sent in POST payload of this request
+     */
+    public String getQueryString(boolean post) {
         String query;
 
-        if(mTransportFileData != null) {
+        if(post) {
             // data is sent in POST payload
             query = "";
         }
@@ -358,8 +395,41 @@ public class TransportFileDescriptor {
         return query;
     }
 
+    /**
+     * Transport file is sent in POST payload when it's in memory or can be streamed from
+     * local file, so there is no need to call {@link #fetchTransportFileData} before request.
+     */
     public boolean shouldPost() {
-        return mTransportFileData != null;
+        return mTransportFileData != null || getPostFile() != null;
+    }
+
+    /**
+     * Local file is posted only when content cannot be referenced by content id or url.
+     *
+     * @return local transport file which should be sent in POST payload or null
+     */
+    @Nullable
+    public File getPostFile() {
+        if(mTransportFileData != null || mContentId != null || mUrl != null) {
+            return null;
+        }
+        return getReadableLocalFile();
+    }
+
+    /**
+     * @return local transport file which can be read by this app or null
+     */
+    @Nullable
+    public File getReadableLocalFile() {
+        String path = mLocalPath;
+        if(path != null && path.startsWith("file:")) {
+            path = Uri.parse(path).getPath();
+        }
+        if(path == null || !path.startsWith("/")) {
+            return null;
+        }
+        File file = new File(path);
+        return (file.isFile() && file.canRead()) ? file : null;
     }
 
     public DataWithMime getPostPayload() {
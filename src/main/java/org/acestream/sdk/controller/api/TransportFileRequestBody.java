@@ -0,0 +1,203 @@
+package org.acestream.sdk.controller.api;
+
+import android.util.Base64;
+
+import org.acestream.sdk.Constants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Request body with transport file for get_media_files: {"transport_file_data": "<base64>"}
+ *
+ * Body is written to the sink in fixed-size chunks. In-memory transport file data is written
+ * without building intermediate JSON. When there is no data in memory local transport file is
+ * read and Base64-encoded on the fly, so memory usage doesn't depend on file size.
+ */
+public class TransportFileRequestBody extends RequestBody {
+    private final static byte[] PREFIX = "{\"transport_file_data\":\"".getBytes();
+    private final static byte[] SUFFIX = "\"}".getBytes();
+    private final static byte[] HEX = "0123456789abcdef".getBytes();
+
+    // Must be multiple of 3, so chunks are encoded without padding
+    private final static int READ_CHUNK_SIZE = 3 * 4096;
+    private final static int WRITE_CHUNK_SIZE = 8192;
+
+    private final static MediaType MEDIA_TYPE = MediaType.parse(Constants.MIME_JSON);
+
+    private final File mFile;
+    private final long mFileLength;
+    private final String mData;
+
+    /**
+     * Create body for descriptor with transport file data.
+     * In-memory data is used when it's present (it may differ from local file), otherwise
+     * local file is streamed without loading it into memory.
+     *
+     * Local file is checked once here, so caller should build request query with
+     * {@link TransportFileDescriptor#getQueryString(boolean)} based on the result.
+     *
+     * @return body or null if transport file should not be posted
+     */
+    @Nullable
+    public static TransportFileRequestBody fromDescriptor(@NonNull TransportFileDescriptor descriptor) {
+        String data = descriptor.getTransportFileData();
+        if(data != null) {
+            return new TransportFileRequestBody(null, data);
+        }
+
+        File file = descriptor.getPostFile();
+        if(file == null) {
+            return null;
+        }
+        return new TransportFileRequestBody(file, null);
+    }
+
+    private TransportFileRequestBody(@Nullable File file, @Nullable String data) {
+        mFile = file;
+        mFileLength = (file == null) ? -1 : file.length();
+        mData = data;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MEDIA_TYPE;
+    }
+
+    @Override
+    public long contentLength() {
+        long length = PREFIX.length + SUFFIX.length;
+        if(mData != null) {
+            for(int i = 0; i < mData.length(); i++) {
+                length += escapedLength(mData.charAt(i));
+            }
+        }
+        else {
+            length += 4 * ((mFileLength + 2) / 3);
+        }
+        return length;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        sink.write(PREFIX);
+        if(mData != null) {
+            writeData(sink);
+        }
+        else {
+            writeFile(sink);
+        }
+        sink.write(SUFFIX);
+    }
+
+    private void writeFile(@NonNull BufferedSink sink) throws IOException {
+        InputStream input = new FileInputStream(mFile);
+        try {
+            byte[] buffer = new byte[READ_CHUNK_SIZE];
+            long total = 0;
+            int n;
+            while((n = readFully(input, buffer)) > 0) {
+                sink.write(Base64.encode(buffer, 0, n, Base64.NO_WRAP));
+                total += n;
+            }
+            if(total != mFileLength) {
+                // Content length has been already sent
+                throw new IOException("file changed while reading: expected=" + mFileLength + " got=" + total);
+            }
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private void writeData(@NonNull BufferedSink sink) throws IOException {
+        // ASCII output: each char takes at most 6 bytes
+        byte[] buffer = new byte[WRITE_CHUNK_SIZE * 6];
+        int length = mData.length();
+        for(int start = 0; start < length; start += WRITE_CHUNK_SIZE) {
+            int end = Math.min(length, start + WRITE_CHUNK_SIZE);
+            int pos = 0;
+            for(int i = start; i < end; i++) {
+                pos = escape(mData.charAt(i), buffer, pos);
+            }
+            sink.write(buffer, 0, pos);
+        }
+    }
+
+    /**
+     * Read until buffer is full or stream is finished.
+     */
+    private static int readFully(@NonNull InputStream input, @NonNull byte[] buffer) throws IOException {
+        int total = 0;
+        while(total < buffer.length) {
+            int n = input.read(buffer, total, buffer.length - total);
+            if(n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static int escapedLength(char c) {
+        if(c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t') {
+            return 2;
+        }
+        else if(c < 0x20 || c > 0x7e) {
+            return 6;
+        }
+        return 1;
+    }
+
+    private static int escape(char c, @NonNull byte[] buffer, int pos) {
+        switch(c) {
+            case '"':
+            case '\\':
+                buffer[pos++] = '\\';
+                buffer[pos++] = (byte) c;
+                break;
+            case '\n':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'n';
+                break;
+            case '\r':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'r';
+                break;
+            case '\t':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 't';
+                break;
+            default:
+                if(c < 0x20 || c > 0x7e) {
+                    buffer[pos++] = '\\';
+                    buffer[pos++] = 'u';
+                    buffer[pos++] = HEX[(c >> 12) & 0xf];
+                    buffer[pos++] = HEX[(c >> 8) & 0xf];
+                    buffer[pos++] = HEX[(c >> 4) & 0xf];
+                    buffer[pos++] = HEX[c & 0xf];
+                }
+                else {
+                    buffer[pos++] = (byte) c;
+                }
+        }
+        return pos;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        if(mData != null) {
+            return "<TransportFileRequestBody(data)>";
+        }
+        return "<TransportFileRequestBody(" + mFile + ")>";
+    }
+}
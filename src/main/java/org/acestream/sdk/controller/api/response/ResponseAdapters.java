@@ -0,0 +1,373 @@
+package org.acestream.sdk.controller.api.response;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Hand-written streaming adapters for engine API responses.
+ *
+ * Adapters are created once and read directly from {@link JsonReader}, so responses are
+ * deserialized without building the raw body string and without reflection.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ResponseAdapters {
+
+    public static final TypeAdapter<String> STRING = new TypeAdapter<String>() {
+        @Override
+        public void write(JsonWriter out, String value) throws IOException {
+            out.value(value);
+        }
+
+        @Override
+        public String read(JsonReader in) throws IOException {
+            return readString(in);
+        }
+    };
+
+    /**
+     * Reads commands results like "ok" as boolean.
+     */
+    public static final TypeAdapter<Boolean> OK = new TypeAdapter<Boolean>() {
+        @Override
+        public void write(JsonWriter out, Boolean value) throws IOException {
+            out.value(value == null ? null : (value ? "ok" : "failed"));
+        }
+
+        @Override
+        public Boolean read(JsonReader in) throws IOException {
+            String value = readString(in);
+            return value == null ? null : "ok".equals(value);
+        }
+    };
+
+    public static final TypeAdapter<EngineApiError> ENGINE_API_ERROR = new TypeAdapter<EngineApiError>() {
+        @Override
+        public void write(JsonWriter out, EngineApiError value) throws IOException {
+            if(value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("code").value(value.code);
+            out.name("message").value(value.message);
+            out.endObject();
+        }
+
+        @Override
+        public EngineApiError read(JsonReader in) throws IOException {
+            JsonToken token = in.peek();
+            if(token == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            EngineApiError error = new EngineApiError();
+            if(token != JsonToken.BEGIN_OBJECT) {
+                // Engine may report error as a plain string
+                error.message = readString(in);
+                return error;
+            }
+
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case "code":
+                        error.code = readInt(in, 0);
+                        break;
+                    case "message":
+                        error.message = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return error;
+        }
+    };
+
+    public static final TypeAdapter<MediaFilesResponse.MediaFile> MEDIA_FILE = new TypeAdapter<MediaFilesResponse.MediaFile>() {
+        @Override
+        public void write(JsonWriter out, MediaFilesResponse.MediaFile value) throws IOException {
+            if(value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("infohash").value(value.infohash);
+            out.name("type").value(value.type);
+            out.name("filename").value(value.filename);
+            out.name("mime").value(value.mime);
+            out.name("transport_type").value(value.transport_type);
+            out.name("index").value(value.index);
+            out.name("size").value(value.size);
+            out.endObject();
+        }
+
+        @Override
+        public MediaFilesResponse.MediaFile read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            MediaFilesResponse.MediaFile mf = new MediaFilesResponse.MediaFile();
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case "infohash":
+                        mf.infohash = readString(in);
+                        break;
+                    case "type":
+                        mf.type = readString(in);
+                        break;
+                    case "filename":
+                        mf.filename = readString(in);
+                        break;
+                    case "mime":
+                        mf.mime = readString(in);
+                        break;
+                    case "transport_type":
+                        mf.transport_type = readString(in);
+                        break;
+                    case "index":
+                        mf.index = readInt(in, 0);
+                        break;
+                    case "size":
+                        mf.size = readLong(in, 0);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return mf;
+        }
+    };
+
+    public static final TypeAdapter<MediaFilesResponse.WrapperData> WRAPPER_DATA = new TypeAdapter<MediaFilesResponse.WrapperData>() {
+        @Override
+        public void write(JsonWriter out, MediaFilesResponse.WrapperData value) throws IOException {
+            if(value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("type").value(value.type);
+            out.name("mime").value(value.mime);
+            out.name("data").value(value.data);
+            out.endObject();
+        }
+
+        @Override
+        public MediaFilesResponse.WrapperData read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            MediaFilesResponse.WrapperData wd = new MediaFilesResponse.WrapperData();
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case "type":
+                        wd.type = readString(in);
+                        break;
+                    case "mime":
+                        wd.mime = readString(in);
+                        break;
+                    case "data":
+                        wd.data = readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return wd;
+        }
+    };
+
+    public static final TypeAdapter<MediaFilesResponse> MEDIA_FILES = new TypeAdapter<MediaFilesResponse>() {
+        @Override
+        public void write(JsonWriter out, MediaFilesResponse value) throws IOException {
+            if(value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("transport_file_data").value(value.transport_file_data);
+            out.name("transport_file_cache_key").value(value.transport_file_cache_key);
+            out.name("infohash").value(value.infohash);
+            out.name("name").value(value.name);
+            out.name("files");
+            if(value.files == null) {
+                out.nullValue();
+            }
+            else {
+                out.beginArray();
+                for(MediaFilesResponse.MediaFile mf: value.files) {
+                    MEDIA_FILE.write(out, mf);
+                }
+                out.endArray();
+            }
+            out.name("wrapper_data");
+            WRAPPER_DATA.write(out, value.wrapper_data);
+            out.endObject();
+        }
+
+        @Override
+        public MediaFilesResponse read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            MediaFilesResponse response = new MediaFilesResponse();
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case "transport_file_data":
+                        response.transport_file_data = readString(in);
+                        break;
+                    case "transport_file_cache_key":
+                        response.transport_file_cache_key = readString(in);
+                        break;
+                    case "infohash":
+                        response.infohash = readString(in);
+                        break;
+                    case "name":
+                        response.name = readString(in);
+                        break;
+                    case "files":
+                        response.files = readMediaFiles(in);
+                        break;
+                    case "wrapper_data":
+                        response.wrapper_data = WRAPPER_DATA.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+    };
+
+    public static final TypeAdapter<EngineApiResponse<String>> STRING_RESPONSE = forResult(STRING);
+    public static final TypeAdapter<EngineApiResponse<Boolean>> OK_RESPONSE = forResult(OK);
+    public static final TypeAdapter<EngineApiResponse<MediaFilesResponse>> MEDIA_FILES_RESPONSE = forResult(MEDIA_FILES);
+
+    private static final Gson sGson = new GsonBuilder()
+            .registerTypeAdapter(EngineApiError.class, ENGINE_API_ERROR)
+            .registerTypeAdapter(MediaFilesResponse.class, MEDIA_FILES)
+            .registerTypeAdapter(MediaFilesResponse.MediaFile.class, MEDIA_FILE)
+            .registerTypeAdapter(MediaFilesResponse.WrapperData.class, WRAPPER_DATA)
+            .create();
+
+    /**
+     * Shared Gson instance with all known adapters registered.
+     * Gson caches adapters per type, so this should be used instead of creating new instances.
+     *
+     * @return Gson
+     */
+    public static Gson gson() {
+        return sGson;
+    }
+
+    public static <T> TypeAdapter<EngineApiResponse<T>> forResult(@NonNull final TypeAdapter<T> resultAdapter) {
+        return new TypeAdapter<EngineApiResponse<T>>() {
+            @Override
+            public void write(JsonWriter out, EngineApiResponse<T> value) throws IOException {
+                if(value == null) {
+                    out.nullValue();
+                    return;
+                }
+                out.beginObject();
+                out.name("result");
+                resultAdapter.write(out, value.result);
+                out.name("error");
+                ENGINE_API_ERROR.write(out, value.error);
+                out.endObject();
+            }
+
+            @Override
+            public EngineApiResponse<T> read(JsonReader in) throws IOException {
+                if(in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    return null;
+                }
+
+                EngineApiResponse<T> response = new EngineApiResponse<>();
+                in.beginObject();
+                while(in.hasNext()) {
+                    switch(in.nextName()) {
+                        case "result":
+                            response.result = resultAdapter.read(in);
+                            break;
+                        case "error":
+                            response.error = ENGINE_API_ERROR.read(in);
+                            break;
+                        default:
+                            in.skipValue();
+                    }
+                }
+                in.endObject();
+                return response;
+            }
+        };
+    }
+
+    private static MediaFilesResponse.MediaFile[] readMediaFiles(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        List<MediaFilesResponse.MediaFile> files = new ArrayList<>();
+        in.beginArray();
+        while(in.hasNext()) {
+            files.add(MEDIA_FILE.read(in));
+        }
+        in.endArray();
+        return files.toArray(new MediaFilesResponse.MediaFile[0]);
+    }
+
+    private static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if(token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        else if(token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    private static int readInt(JsonReader in, int defaultValue) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return defaultValue;
+        }
+        return in.nextInt();
+    }
+
+    private static long readLong(JsonReader in, long defaultValue) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return defaultValue;
+        }
+        return in.nextLong();
+    }
+}
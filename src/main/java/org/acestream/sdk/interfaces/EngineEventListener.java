@@ -0,0 +1,9 @@
+package org.acestream.sdk.interfaces;
+
+import org.acestream.sdk.EngineEvent;
+
+import androidx.annotation.NonNull;
+
+public interface EngineEventListener {
+    void onEngineEvent(@NonNull EngineEvent event);
+}
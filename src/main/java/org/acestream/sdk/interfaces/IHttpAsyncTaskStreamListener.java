@@ -0,0 +1,18 @@
+package org.acestream.sdk.interfaces;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Task listener which parses response body directly from the stream.
+ *
+ * {@link #onHttpAsyncTaskResponse} is called on a worker thread. When it succeeds,
+ * {@link #onHttpAsyncTaskFinish} is called with null result, otherwise with error response.
+ */
+public interface IHttpAsyncTaskStreamListener extends IHttpAsyncTaskListener {
+
+	public void onHttpAsyncTaskResponse(int type, InputStream stream, Charset charset, Map<String, Object> extraData) throws IOException;
+
+}
@@ -0,0 +1,290 @@
+package org.acestream.sdk.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Latency, traffic and error metrics for engine HTTP API calls.
+ *
+ * Counters are lock-free and latency is recorded into fixed-bucket histograms, so recording
+ * is cheap enough to be done for every call.
+ *
+ * Usage:
+ *   ApiMetrics.Sample sample = ApiMetrics.getInstance().begin("get_media_files", requestBytes);
+ *   ...
+ *   sample.success(responseBytes);
+ *   // or
+ *   sample.error(ApiMetrics.ERROR_JSON, responseBytes);
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class ApiMetrics {
+    private final static String TAG = "AS/ApiMetrics";
+
+    // Error causes
+    public final static int ERROR_CONNECT = 0;
+    public final static int ERROR_JSON = 1;
+    public final static int ERROR_ENGINE = 2;
+    public final static int ERROR_CANCELED = 3;
+    public final static int ERROR_OTHER = 4;
+    private final static int ERROR_CAUSES_COUNT = 5;
+
+    private final static String[] ERROR_NAMES = {"connect", "json", "engine", "canceled", "other"};
+
+    // Upper bounds of latency buckets in milliseconds. Last bucket has no upper bound.
+    private final static long[] BUCKETS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final static ApiMetrics sInstance = new ApiMetrics();
+
+    private final ConcurrentHashMap<String, MethodStats> mStats = new ConcurrentHashMap<>();
+
+    private static class MethodStats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+        final AtomicLong totalLatency = new AtomicLong();
+        final AtomicLong maxLatency = new AtomicLong();
+        final AtomicLongArray errors = new AtomicLongArray(ERROR_CAUSES_COUNT);
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+
+        void record(long latency, long responseBytes) {
+            calls.incrementAndGet();
+            inFlight.decrementAndGet();
+            this.responseBytes.addAndGet(responseBytes);
+            totalLatency.addAndGet(latency);
+            histogram.incrementAndGet(bucketFor(latency));
+
+            long max;
+            do {
+                max = maxLatency.get();
+            } while(latency > max && !maxLatency.compareAndSet(max, latency));
+        }
+    }
+
+    /**
+     * Single API call being measured.
+     */
+    public static class Sample {
+        private final MethodStats mStats;
+        private final long mStartedAt;
+        private boolean mFinished = false;
+
+        private Sample(MethodStats stats) {
+            mStats = stats;
+            mStartedAt = SystemClock.elapsedRealtime();
+        }
+
+        public void success(long responseBytes) {
+            finish(responseBytes);
+        }
+
+        public void error(int cause, long responseBytes) {
+            if(cause < 0 || cause >= ERROR_CAUSES_COUNT) {
+                cause = ERROR_OTHER;
+            }
+            if(!mFinished) {
+                mStats.errors.incrementAndGet(cause);
+            }
+            finish(responseBytes);
+        }
+
+        private void finish(long responseBytes) {
+            if(mFinished) {
+                return;
+            }
+            mFinished = true;
+            mStats.record(SystemClock.elapsedRealtime() - mStartedAt, Math.max(0, responseBytes));
+        }
+    }
+
+    /**
+     * Immutable copy of metrics for one API method.
+     */
+    public static class MethodSnapshot {
+        public final String method;
+        public final long calls;
+        public final int inFlight;
+        public final long requestBytes;
+        public final long responseBytes;
+        public final long totalLatency;
+        public final long maxLatency;
+        // Indexed by ERROR_* constants
+        public final long[] errors;
+        // Counts per latency bucket, see getBucketBounds()
+        public final long[] histogram;
+
+        private MethodSnapshot(String method, MethodStats stats) {
+            this.method = method;
+            this.calls = stats.calls.get();
+            this.inFlight = stats.inFlight.get();
+            this.requestBytes = stats.requestBytes.get();
+            this.responseBytes = stats.responseBytes.get();
+            this.totalLatency = stats.totalLatency.get();
+            this.maxLatency = stats.maxLatency.get();
+            this.errors = new long[ERROR_CAUSES_COUNT];
+            for(int i = 0; i < errors.length; i++) {
+                errors[i] = stats.errors.get(i);
+            }
+            this.histogram = new long[BUCKETS.length + 1];
+            for(int i = 0; i < histogram.length; i++) {
+                histogram[i] = stats.histogram.get(i);
+            }
+        }
+
+        public long getErrorCount() {
+            long count = 0;
+            for(long value: errors) {
+                count += value;
+            }
+            return count;
+        }
+
+        public long getAverageLatency() {
+            return calls == 0 ? 0 : totalLatency / calls;
+        }
+
+        /**
+         * Estimate latency percentile from histogram.
+         *
+         * @param p percentile in range 0..100
+         * @return upper bound of the bucket containing the percentile (max latency for the last bucket)
+         */
+        public long getPercentile(double p) {
+            long total = 0;
+            for(long value: histogram) {
+                total += value;
+            }
+            if(total == 0) {
+                return 0;
+            }
+
+            long threshold = (long)Math.ceil(total * p / 100.0);
+            long count = 0;
+            for(int i = 0; i < histogram.length; i++) {
+                count += histogram[i];
+                if(count >= threshold) {
+                    return i < BUCKETS.length ? Math.min(BUCKETS[i], maxLatency) : maxLatency;
+                }
+            }
+            return maxLatency;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(method)
+                    .append(": calls=").append(calls)
+                    .append(" in_flight=").append(inFlight)
+                    .append(" avg=").append(getAverageLatency())
+                    .append(" p50=").append(getPercentile(50))
+                    .append(" p95=").append(getPercentile(95))
+                    .append(" max=").append(maxLatency)
+                    .append(" req_bytes=").append(requestBytes)
+                    .append(" resp_bytes=").append(responseBytes)
+                    .append(" errors=").append(getErrorCount());
+            for(int i = 0; i < errors.length; i++) {
+                if(errors[i] > 0) {
+                    sb.append(" ").append(ERROR_NAMES[i]).append("=").append(errors[i]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    public static ApiMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return upper bounds of latency histogram buckets in milliseconds.
+     * Histogram has one more bucket for values above the last bound.
+     */
+    public static long[] getBucketBounds() {
+        return BUCKETS.clone();
+    }
+
+    public Sample begin(@NonNull String method, long requestBytes) {
+        MethodStats stats = mStats.get(method);
+        if(stats == null) {
+            MethodStats newStats = new MethodStats();
+            stats = mStats.putIfAbsent(method, newStats);
+            if(stats == null) {
+                stats = newStats;
+            }
+        }
+        stats.inFlight.incrementAndGet();
+        if(requestBytes > 0) {
+            stats.requestBytes.addAndGet(requestBytes);
+        }
+        return new Sample(stats);
+    }
+
+    @NonNull
+    public List<MethodSnapshot> snapshot() {
+        List<MethodSnapshot> result = new ArrayList<>(mStats.size());
+        for(String method: mStats.keySet()) {
+            MethodStats stats = mStats.get(method);
+            if(stats != null) {
+                result.add(new MethodSnapshot(method, stats));
+            }
+        }
+        Collections.sort(result, new Comparator<MethodSnapshot>() {
+            @Override
+            public int compare(MethodSnapshot a, MethodSnapshot b) {
+                return a.method.compareTo(b.method);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Print current metrics to logcat.
+     */
+    public void dump() {
+        List<MethodSnapshot> snapshot = snapshot();
+        Log.i(TAG, "dump: methods=" + snapshot.size());
+        for(MethodSnapshot item: snapshot) {
+            Log.i(TAG, item.toString());
+        }
+    }
+
+    public void reset() {
+        mStats.clear();
+    }
+
+    /**
+     * Get API method name from engine API url: value of "method" query parameter or url path.
+     */
+    @NonNull
+    public static String getMethodName(@NonNull String url) {
+        int pos = url.indexOf("method=");
+        if(pos > 0 && (url.charAt(pos - 1) == '?' || url.charAt(pos - 1) == '&')) {
+            int end = url.indexOf('&', pos);
+            return url.substring(pos + 7, end == -1 ? url.length() : end);
+        }
+
+        int end = url.indexOf('?');
+        return end == -1 ? url : url.substring(0, end);
+    }
+
+    private static int bucketFor(long latency) {
+        for(int i = 0; i < BUCKETS.length; i++) {
+            if(latency <= BUCKETS[i]) {
+                return i;
+            }
+        }
+        return BUCKETS.length;
+    }
+}
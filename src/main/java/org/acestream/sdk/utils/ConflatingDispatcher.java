@@ -0,0 +1,126 @@
+package org.acestream.sdk.utils;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Delivers only the latest pending value for each key.
+ *
+ * Values are delivered on the handler thread after messages which are already queued, so
+ * a burst of updates results in a single delivery. Callers must call {@link #flush()} before
+ * handling events which must stay ordered relative to conflated ones.
+ *
+ * All methods except counters must be called on the handler thread.
+ */
+public class ConflatingDispatcher {
+    private final static String TAG = "AS/Conflater";
+
+    public interface Target {
+        /**
+         * @param payload Object passed to {@link #offer(String, int, Bundle, Object)}
+         */
+        void dispatch(int what, @NonNull Bundle data, @Nullable Object payload);
+    }
+
+    private static class Pending {
+        final int what;
+        Bundle data;
+        Object payload;
+
+        Pending(int what, Bundle data, Object payload) {
+            this.what = what;
+            this.data = data;
+            this.payload = payload;
+        }
+    }
+
+    private final Handler mHandler;
+    private final Target mTarget;
+    // Ordered by first update, so keys are delivered in the order they were first seen
+    private final LinkedHashMap<String, Pending> mPending = new LinkedHashMap<>();
+    private boolean mDrainPosted = false;
+
+    private final AtomicLong mOffered = new AtomicLong();
+    private final AtomicLong mConflated = new AtomicLong();
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            mDrainPosted = false;
+            flush();
+        }
+    };
+
+    public ConflatingDispatcher(@NonNull Handler handler, @NonNull Target target) {
+        mHandler = handler;
+        mTarget = target;
+    }
+
+    public void offer(@NonNull String key, int what, @NonNull Bundle data) {
+        offer(key, what, data, null);
+    }
+
+    /**
+     * @param payload Data decoded from |data| (if any), delivered together with it
+     */
+    public void offer(@NonNull String key, int what, @NonNull Bundle data, @Nullable Object payload) {
+        mOffered.incrementAndGet();
+        Pending pending = mPending.get(key);
+        if(pending != null) {
+            pending.data = data;
+            pending.payload = payload;
+            mConflated.incrementAndGet();
+        }
+        else {
+            mPending.put(key, new Pending(what, data, payload));
+        }
+
+        if(!mDrainPosted) {
+            mDrainPosted = true;
+            mHandler.post(mDrainTask);
+        }
+    }
+
+    /**
+     * Deliver all pending values now.
+     */
+    public void flush() {
+        if(mPending.isEmpty()) {
+            return;
+        }
+
+        List<Pending> items = new ArrayList<>(mPending.values());
+        mPending.clear();
+        for(Pending item: items) {
+            try {
+                mTarget.dispatch(item.what, item.data, item.payload);
+            }
+            catch(Throwable e) {
+                Log.e(TAG, "flush: dispatch failed: what=" + item.what, e);
+            }
+        }
+    }
+
+    /**
+     * @return number of values offered for delivery
+     */
+    public long getOfferedCount() {
+        return mOffered.get();
+    }
+
+    /**
+     * @return number of values replaced by newer ones before delivery
+     */
+    public long getConflatedCount() {
+        return mConflated.get();
+    }
+}
@@ -1,25 +1,31 @@
 package org.acestream.sdk.utils;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import android.annotation.SuppressLint;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.util.Log;
 
+import org.acestream.sdk.controller.EngineGate;
 import org.acestream.sdk.interfaces.IHttpAsyncTaskListener;
+import org.acestream.sdk.interfaces.IHttpAsyncTaskStreamListener;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 @SuppressLint("UseSparseArrays")
-public class HttpAsyncTask extends AsyncTask<String, Void, String> {
+public class HttpAsyncTask {
 
 	private final static String TAG = "AceStream/HttpAsyncTask";
 	
@@ -43,7 +49,14 @@ public class HttpAsyncTask extends AsyncTask<String, Void, String> {
 	public static final int HTTPTASK_SET_STREAM = 20;
 
     private static final String HOST = "127.0.0.1";
+	// No read timeout: engine commands (e.g. clearcache, shutdown) may take long
+	private static final OkHttpClient sHttpClient = HttpClients.engine().newBuilder()
+			.connectTimeout(10, TimeUnit.SECONDS)
+			.readTimeout(0, TimeUnit.MILLISECONDS)
+			.build();
 	private static final Map<Integer, String> URLS;
+	// Tasks which only read engine state, so they can be safely sent again
+	private static final Set<Integer> RETRYABLE_TASKS;
 	
 	static {
 		Map<Integer, String> map = new HashMap<>();
@@ -59,6 +72,14 @@ public class HttpAsyncTask extends AsyncTask<String, Void, String> {
 		map.put(HTTPTASK_TEST_SEGMENTER_DIRECT, "/webui/app/%token%/cmd/test-segmenter-direct");
 		map.put(HTTPTASK_TEST_SEGMENTER_OUTPUT_CONTEXT, "/webui/app/%token%/cmd/test-segmenter-output-context");
         URLS = Collections.unmodifiableMap(map);
+
+		Set<Integer> retryable = new HashSet<>();
+		retryable.add(HTTPTASK_GET_SETTINGS);
+		retryable.add(HTTPTASK_GET_PROFILE);
+		retryable.add(HTTPTASK_GET_EXTENSIONS);
+		retryable.add(HTTPTASK_GET_MEDIA_FILES);
+		retryable.add(HTTPTASK_GET_DOWNLOAD_STATUS);
+		RETRYABLE_TASKS = Collections.unmodifiableSet(retryable);
     }
 
 	private int mHttpApiPort;
@@ -162,15 +183,19 @@ public class HttpAsyncTask extends AsyncTask<String, Void, String> {
 	}
 	
 	public void execute2(String... params) {
-	    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-	        super.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, params);
-	    }
-	    else {
-	        super.execute(params);
-	    }
+		// Tasks are run by priority. onPreExecute() and onPostExecute() are called on the main
+		// thread when task is actually started and finished.
+		HttpTaskScheduler.getInstance().submit(this, params);
+	}
+
+	int getTaskType() {
+		return mTaskType;
+	}
+
+	int getHttpApiPort() {
+		return mHttpApiPort;
 	}
 	
-	@Override
 	protected void onPreExecute() {
 		if(mListenerRef.get() != null) {
 		    try {
@@ -182,7 +207,6 @@ public class HttpAsyncTask extends AsyncTask<String, Void, String> {
 		}
 	}
 	
-	@Override
 	protected String doInBackground(String... params) {
         String strUrl;
 
@@ -213,60 +237,115 @@ public class HttpAsyncTask extends AsyncTask<String, Void, String> {
         String strParams = params.length > 1 ? params[1] : "";
         String strContentType = params.length > 2 ? params[2] : "";
 
-        URL url;
-	    HttpURLConnection connection = null;
-	    BufferedReader reader;
-	    BufferedWriter writer;
+        byte[] postData = null;
+        if( !strParams.equalsIgnoreCase("") && strMethod.equalsIgnoreCase("POST") ) {
+        	postData = strParams.getBytes(ResponseReader.UTF_8);
+		}
+        ApiMetrics.Sample metrics = ApiMetrics.getInstance().begin(
+        		getMetricsName(),
+				postData == null ? 0 : postData.length);
+        CountingInputStream responseStream = null;
+
+	    Response httpResponse = null;
 	    try {
 	    	if( !strParams.equalsIgnoreCase("") && strMethod.equalsIgnoreCase("GET") ) {
 	    		strUrl += "?" + strParams;
 	    	}
 
-	    	url = new URL("http", HOST, mHttpApiPort, strUrl);
-	    	
-	    	if(!url.toString().contains("password=")) {
-	    	    //Log.v(TAG, url.toString().replace(token, "webui"));
-	    	}
-	    	
-	    	connection = (HttpURLConnection) url.openConnection();
-	    	connection.setRequestMethod(strMethod);
-	        connection.setConnectTimeout(10000);
-	        connection.setDoInput(true);
-	        
-	        if( !strParams.equalsIgnoreCase("") && strMethod.equalsIgnoreCase("POST") ) {
-	        	connection.setDoOutput(true);
-        		connection.setRequestProperty("Content-Length", Integer.toString(strParams.getBytes().length));
-        		if(!strContentType.equalsIgnoreCase("")) {
-        			connection.setRequestProperty("Content-Type", strContentType);
-        		}
-
-        		writer = new BufferedWriter(new OutputStreamWriter( connection.getOutputStream() ));
-        		writer.write(strParams);
-	        	writer.flush();
-	        	writer.close();
-	        }
-
-	        reader = new BufferedReader(new InputStreamReader( connection.getInputStream() ));
-	        
-	        StringBuilder builder = new StringBuilder();
-	        String buffer;
-	        while((buffer = reader.readLine()) != null) {
-	            builder.append(buffer);
-	        }
-
-	        reader.close();
-	        response = builder.toString();
+	    	RequestBody body = null;
+	    	if( postData != null ) {
+	    		body = RequestBody.create(
+	    				strContentType.equalsIgnoreCase("") ? null : MediaType.parse(strContentType),
+						postData);
+			}
+	    	else if(strMethod.equalsIgnoreCase("POST")) {
+	    		body = RequestBody.create(null, new byte[0]);
+			}
+
+	    	// Keep-alive connections to engine are reused between tasks
+	    	Request request = new Request.Builder()
+					.url("http://" + HOST + ":" + mHttpApiPort + strUrl)
+					.method(strMethod, body)
+					.build();
+	    	httpResponse = execute(request, RETRYABLE_TASKS.contains(mTaskType));
+	    	ResponseBody responseBody = httpResponse.body();
+	    	if(!httpResponse.isSuccessful() || responseBody == null) {
+	    		throw new IOException("HTTP error: code=" + httpResponse.code());
+			}
+
+	        responseStream = new CountingInputStream(responseBody.byteStream());
+	        Charset charset = ResponseReader.getCharset(responseBody.contentType());
+
+	        IHttpAsyncTaskListener listener = mListenerRef.get();
+	        if(listener instanceof IHttpAsyncTaskStreamListener) {
+	        	// listener parses body itself, don't build string
+	        	((IHttpAsyncTaskStreamListener) listener).onHttpAsyncTaskResponse(mTaskType, responseStream, charset, mExtraData);
+	        	response = null;
+			}
+	        else {
+	        	response = ResponseReader.readString(responseStream, charset, responseBody.contentLength());
+			}
+	        metrics.success(responseStream.getCount());
 	    } catch(Exception e) {
 	    	Log.e(TAG, "got exception: " + e.getMessage());
-            response = "{\"response\": null, \"error\": \"HttpURLConnection error\"}";
+	    	metrics.error(
+	    			(e instanceof IOException) ? ApiMetrics.ERROR_CONNECT : ApiMetrics.ERROR_OTHER,
+					responseStream == null ? 0 : responseStream.getCount());
+            response = errorResponse(EngineGate.getInstance().isCircuitOpen()
+					? EngineGate.ERROR_NOT_AVAILABLE
+					: "HttpURLConnection error");
         } finally {
-        	if(connection != null)
-	        	connection.disconnect();
+        	if(httpResponse != null)
+	        	httpResponse.close();
         }
         return response;
 	}
 
-	@Override 
+	/**
+	 * Execute request. Retryable requests are retried with backoff when engine is not reachable.
+	 * Failures after connection was established are not retried and not counted by the gate.
+	 */
+	private static Response execute(Request request, boolean retryable) throws IOException {
+		int attempt = 0;
+		while(true) {
+			try {
+				Response response = sHttpClient.newCall(request).execute();
+				EngineGate.getInstance().reportSuccess();
+				return response;
+			}
+			catch(IOException e) {
+				if(!EngineGate.isConnectFailure(e)) {
+					throw e;
+				}
+				EngineGate.getInstance().reportFailure();
+				long delay = retryable ? EngineGate.getInstance().getRetryDelay(++attempt) : -1;
+				if(delay < 0) {
+					throw e;
+				}
+				Log.d(TAG, "execute: retry: attempt=" + attempt + " delay=" + delay + " error=" + e.getMessage());
+				try {
+					Thread.sleep(delay);
+				}
+				catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	static String errorResponse(String error) {
+		return "{\"response\": null, \"error\": \"" + error + "\"}";
+	}
+
+	private String getMetricsName() {
+		if(mTargetUrl == null) {
+			// strip access token from predefined url
+			return URLS.get(mTaskType).replace("/webui/app/%token%/", "webui/");
+		}
+		return "task/" + mTaskType;
+	}
+
     protected void onPostExecute(String result) {
 		if(mListenerRef.get() != null) {
 		    try {
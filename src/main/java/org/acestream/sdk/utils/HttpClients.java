@@ -0,0 +1,104 @@
+package org.acestream.sdk.utils;
+
+import android.util.Log;
+
+import org.acestream.sdk.AceStream;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Shared HTTP clients.
+ *
+ * Clients with custom settings should be derived with newBuilder(), so they share connection
+ * pool and dispatcher of the base client.
+ *
+ * Like HttpURLConnection, base clients have no read and write timeouts (OkHttp default is 10s).
+ * Derived clients set their own timeouts where needed.
+ */
+public class HttpClients {
+    private final static String TAG = "AS/HttpClients";
+
+    private final static long REMOTE_CACHE_SIZE = 4 * 1024 * 1024;
+
+    // Local engine: keep-alive connections to 127.0.0.1
+    private final static OkHttpClient sEngineClient = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(7, 2, TimeUnit.MINUTES))
+            .dispatcher(new Dispatcher(Workers.engineIo()))
+            .readTimeout(0, TimeUnit.MILLISECONDS)
+            .writeTimeout(0, TimeUnit.MILLISECONDS)
+            .build();
+
+    private final static OkHttpClient sRemoteClient = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+            .dispatcher(new Dispatcher(Workers.remoteIo()))
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(0, TimeUnit.MILLISECONDS)
+            .writeTimeout(0, TimeUnit.MILLISECONDS)
+            .build();
+
+    private static OkHttpClient sCachedRemoteClient = null;
+    private static Cache sRemoteCache = null;
+
+    /**
+     * Client for requests to local engine.
+     */
+    public static OkHttpClient engine() {
+        return sEngineClient;
+    }
+
+    /**
+     * Client for requests to remote hosts.
+     */
+    public static OkHttpClient remote() {
+        return sRemoteClient;
+    }
+
+    /**
+     * Client for requests to remote hosts with disk cache.
+     * Responses are cached and revalidated according to Cache-Control, ETag and Last-Modified.
+     * Falls back to {@link #remote()} when cache dir is not available.
+     */
+    public static synchronized OkHttpClient remoteCached() {
+        if(sCachedRemoteClient == null) {
+            try {
+                File dir = new File(AceStream.context().getCacheDir(), "http");
+                sRemoteCache = new Cache(dir, REMOTE_CACHE_SIZE);
+                sCachedRemoteClient = sRemoteClient.newBuilder()
+                        .cache(sRemoteCache)
+                        .build();
+            }
+            catch(IllegalStateException e) {
+                // AceStream is not initialized yet, don't remember this client
+                Log.e(TAG, "remoteCached: cache is not available: " + e.getMessage());
+                return sRemoteClient;
+            }
+        }
+        return sCachedRemoteClient;
+    }
+
+    /**
+     * Forget cached client, so the next call of {@link #remoteCached()} creates new cache in
+     * current cache dir.
+     */
+    @VisibleForTesting
+    static synchronized void resetRemoteCached() {
+        sCachedRemoteClient = null;
+        sRemoteCache = null;
+    }
+
+    /**
+     * @return disk cache of {@link #remoteCached()} or null if it was not created yet
+     */
+    @Nullable
+    public static synchronized Cache remoteCache() {
+        return sRemoteCache;
+    }
+}
@@ -1,118 +1,201 @@
 package org.acestream.sdk.utils;
 
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
 
 public class HttpRequest {
 	private final static String TAG = "AceStream/HttpRequest";
 
+	private final static AtomicLong sCacheHits = new AtomicLong();
+	private final static AtomicLong sConditionalHits = new AtomicLong();
+	private final static AtomicLong sCacheMisses = new AtomicLong();
+
 	public interface Callback {
 		void onResponse(Response response);
 	}
 
-	public static void get(Uri uri, Map<String,String> headers, Callback callback) {
-		HttpRequestTask task = new HttpRequestTask("GET", uri, headers, callback);
-		task.execute2();
+	/**
+	 * Receives result of {@link ResponseReader.Handler} on the main thread.
+	 * Result is null when request or parsing failed.
+	 */
+	public interface StreamCallback<T> {
+		void onResponse(T result, Map<String,List<String>> headers);
 	}
 
-	public static class Response {
-		public Map<String,List<String>> headers;
-		public String body;
+	public static void get(Uri uri, Map<String,String> headers, final Callback callback) {
+		get(uri, headers, ResponseReader.STRING, new StreamCallback<String>() {
+			@Override
+			public void onResponse(String body, Map<String, List<String>> headers) {
+				Response response = null;
+				if(body != null) {
+					response = new Response();
+					response.body = body;
+					response.headers = headers;
+				}
+				callback.onResponse(response);
+			}
+		});
 	}
 
-	private static class HttpRequestTask extends AsyncTask<Void, Void, Response> {
-		private String mMethod;
-		private Uri mUri;
-		private Map<String,String> mHeaders;
-		private Callback mCallback;
-
-		HttpRequestTask(String method, Uri uri, Map<String,String> headers, Callback callback) {
-			mMethod = method;
-			mUri = uri;
-			mCallback = callback;
-			mHeaders = headers;
+	/**
+	 * Make GET request and parse response body with |handler| on a worker thread.
+	 */
+	public static <T> void get(Uri uri, Map<String,String> headers, final ResponseReader.Handler<T> handler, final StreamCallback<T> callback) {
+		Request.Builder builder;
+		try {
+			builder = new Request.Builder().url(uri.toString());
+		}
+		catch(IllegalArgumentException e) {
+			Log.e(TAG, "got exception: " + e.getMessage());
+			notifyResponse(callback, null, null);
+			return;
 		}
 
-		public void execute2() {
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-				super.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+		if(headers != null) {
+			for(Map.Entry<String,String> item: headers.entrySet()) {
+				builder.header(item.getKey(), item.getValue());
 			}
-			else {
-				super.execute();
+		}
+
+		HttpClients.remoteCached().newCall(builder.build()).enqueue(new okhttp3.Callback() {
+			@Override
+			public void onFailure(@NonNull Call call, @NonNull IOException e) {
+				Log.e(TAG, "got exception: " + e.getMessage());
+				notifyResponse(callback, null, null);
 			}
+
+			@Override
+			public void onResponse(@NonNull Call call, @NonNull okhttp3.Response httpResponse) {
+				T result = null;
+				Map<String,List<String>> responseHeaders = null;
+				try {
+					ResponseBody body = httpResponse.body();
+					if(!httpResponse.isSuccessful() || body == null) {
+						throw new IOException("HTTP error: code=" + httpResponse.code());
+					}
+
+					updateCacheStats(httpResponse);
+					result = handler.handle(
+							body.byteStream(),
+							ResponseReader.getCharset(body.contentType()));
+					responseHeaders = toMultimap(httpResponse.headers());
+				}
+				catch(IOException|RuntimeException e) {
+					Log.e(TAG, "got exception: " + e.getMessage());
+					result = null;
+				}
+				finally {
+					httpResponse.close();
+				}
+				notifyResponse(callback, result, responseHeaders);
+			}
+		});
+	}
+
+	/**
+	 * Response cache statistics.
+	 */
+	public static class CacheStats {
+		// Served from cache without network
+		public long hitCount;
+		// Revalidated with server (304 Not Modified)
+		public long conditionalHitCount;
+		// Downloaded from network
+		public long missCount;
+		public long size;
+		public long maxSize;
+
+		public float getHitRatio() {
+			long total = hitCount + conditionalHitCount + missCount;
+			return total == 0 ? 0 : (float)(hitCount + conditionalHitCount) / total;
 		}
 
 		@Override
-		protected Response doInBackground(Void... params) {
-			Response response;
-			URL url;
-			URLConnection connection = null;
-			BufferedReader reader;
-			BufferedWriter writer;
+		@NonNull
+		public String toString() {
+			return String.format(Locale.getDefault(),
+					"hits=%d conditional=%d misses=%d ratio=%.2f size=%d/%d",
+					hitCount,
+					conditionalHitCount,
+					missCount,
+					getHitRatio(),
+					size,
+					maxSize);
+		}
+	}
+
+	@NonNull
+	public static CacheStats getCacheStats() {
+		CacheStats stats = new CacheStats();
+		stats.hitCount = sCacheHits.get();
+		stats.conditionalHitCount = sConditionalHits.get();
+		stats.missCount = sCacheMisses.get();
+		Cache cache = HttpClients.remoteCache();
+		if(cache != null) {
 			try {
-				url = new URL(mUri.toString());
-
-				connection = url.openConnection();
-				//connection.setRequestMethod(strMethod);
-				connection.setConnectTimeout(10000);
-				if(mHeaders != null) {
-				    for(Map.Entry<String,String> item: mHeaders.entrySet()) {
-                        connection.setRequestProperty(item.getKey(), item.getValue());
-                    }
-                }
-				connection.setDoInput(true);
-
-//				if( !strParams.equalsIgnoreCase("") && strMethod.equalsIgnoreCase("POST") ) {
-//					connection.setDoOutput(true);
-//					connection.setRequestProperty("Content-Length", Integer.toString(strParams.getBytes().length));
-//					if(!strContentType.equalsIgnoreCase("")) {
-//						connection.setRequestProperty("Content-Type", strContentType);
-//					}
-//
-//					writer = new BufferedWriter(new OutputStreamWriter( connection.getOutputStream() ));
-//					writer.write(strParams);
-//					writer.flush();
-//					writer.close();
-//				}
-
-				reader = new BufferedReader(new InputStreamReader( connection.getInputStream() ));
-
-				StringBuilder builder = new StringBuilder();
-				String buffer;
-				while((buffer = reader.readLine()) != null) {
-					builder.append(buffer);
-				}
+				stats.size = cache.size();
+			}
+			catch(IOException e) {
+				stats.size = -1;
+			}
+			stats.maxSize = cache.maxSize();
+		}
+		return stats;
+	}
 
-				reader.close();
+	private static void updateCacheStats(@NonNull okhttp3.Response response) {
+		if(response.cacheResponse() == null) {
+			sCacheMisses.incrementAndGet();
+		}
+		else if(response.networkResponse() == null) {
+			sCacheHits.incrementAndGet();
+		}
+		else {
+			sConditionalHits.incrementAndGet();
+		}
+	}
 
-				response = new Response();
-				response.body = builder.toString();
-				response.headers = connection.getHeaderFields();
-			} catch(Exception e) {
-				Log.e(TAG, "got exception: " + e.getMessage());
-				response = null;
-			} finally {
-				//if(connection != null) {
-				//	connection.disconnect();
-				//}
+	public static class Response {
+		public Map<String,List<String>> headers;
+		public String body;
+	}
+
+	private static <T> void notifyResponse(final StreamCallback<T> callback, final T result, final Map<String,List<String>> headers) {
+		Workers.runOnMainThread(new Runnable() {
+			@Override
+			public void run() {
+				callback.onResponse(result, headers);
 			}
-			return response;
-		}
+		});
+	}
 
-		@Override
-		protected void onPostExecute(Response response) {
-			mCallback.onResponse(response);
+	// Header names are case-insensitive (like in HttpURLConnection)
+	private static Map<String,List<String>> toMultimap(@NonNull Headers headers) {
+		Map<String,List<String>> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for(int i = 0; i < headers.size(); i++) {
+			String name = headers.name(i);
+			List<String> values = result.get(name);
+			if(values == null) {
+				values = new ArrayList<>(1);
+				result.put(name, values);
+			}
+			values.add(headers.value(i));
 		}
+		return result;
 	}
 }
-
@@ -0,0 +1,277 @@
+package org.acestream.sdk.utils;
+
+import android.util.SparseIntArray;
+
+import org.acestream.sdk.controller.EngineGate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static org.acestream.sdk.utils.HttpAsyncTask.HTTPTASK_ADD_EXTENSION;
+import static org.acestream.sdk.utils.HttpAsyncTask.HTTPTASK_GET_EXTENSIONS;
+import static org.acestream.sdk.utils.HttpAsyncTask.HTTPTASK_GET_PROFILE;
+import static org.acestream.sdk.utils.HttpAsyncTask.HTTPTASK_GET_SETTINGS;
+import static org.acestream.sdk.utils.HttpAsyncTask.HTTPTASK_SET_IS_ONLINE;
+import static org.acestream.sdk.utils.HttpAsyncTask.HTTPTASK_SET_SCREEN_STATUS;
+import static org.acestream.sdk.utils.HttpAsyncTask.HTTPTASK_SET_SETTINGS;
+import static org.acestream.sdk.utils.HttpAsyncTask.HTTPTASK_SHUTDOWN;
+
+/**
+ * Runs {@link HttpAsyncTask} commands by priority with limited concurrency.
+ *
+ * Commands where only the latest value matters (screen status, online state) are collapsed:
+ * queued command is replaced by the newer one and listeners of the replaced command get
+ * callbacks of the command which is actually executed.
+ */
+class HttpTaskScheduler {
+    private final static String TAG = "AS/HttpTaskScheduler";
+
+    private final static int MAX_RUNNING = 4;
+
+    private final static int PRIORITY_URGENT = 0;
+    private final static int PRIORITY_INTERACTIVE = 1;
+    private final static int PRIORITY_DEFAULT = 2;
+    private final static int PRIORITY_BACKGROUND = 3;
+
+    private final static SparseIntArray PRIORITIES = new SparseIntArray();
+    static {
+        PRIORITIES.put(HTTPTASK_SHUTDOWN, PRIORITY_URGENT);
+        PRIORITIES.put(HTTPTASK_GET_SETTINGS, PRIORITY_INTERACTIVE);
+        PRIORITIES.put(HTTPTASK_GET_PROFILE, PRIORITY_INTERACTIVE);
+        PRIORITIES.put(HTTPTASK_SET_SETTINGS, PRIORITY_INTERACTIVE);
+        PRIORITIES.put(HTTPTASK_GET_EXTENSIONS, PRIORITY_INTERACTIVE);
+        PRIORITIES.put(HTTPTASK_ADD_EXTENSION, PRIORITY_INTERACTIVE);
+        PRIORITIES.put(HTTPTASK_SET_SCREEN_STATUS, PRIORITY_BACKGROUND);
+        PRIORITIES.put(HTTPTASK_SET_IS_ONLINE, PRIORITY_BACKGROUND);
+    }
+
+    private final static HttpTaskScheduler sInstance = new HttpTaskScheduler();
+
+    private static class Entry {
+        final HttpAsyncTask task;
+        final String[] params;
+        final int priority;
+        long seq;
+        // Collapsed tasks waiting for result of this task
+        final List<HttpAsyncTask> superseded = new ArrayList<>(0);
+
+        Entry(HttpAsyncTask task, String[] params, int priority, long seq) {
+            this.task = task;
+            this.params = params;
+            this.priority = priority;
+            this.seq = seq;
+        }
+    }
+
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<>(16, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if(a.priority != b.priority) {
+                return a.priority < b.priority ? -1 : 1;
+            }
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    });
+    // Queued collapsible tasks
+    private final Map<String, Entry> mPending = new HashMap<>();
+    private long mNextSeq = 0;
+    private int mRunning = 0;
+    // Waiting for engine to start
+    private boolean mWaitingForGate = false;
+    private long mCollapsedCount = 0;
+
+    static HttpTaskScheduler getInstance() {
+        return sInstance;
+    }
+
+    void submit(@NonNull HttpAsyncTask task, @NonNull String[] params) {
+        synchronized (this) {
+            Entry entry = new Entry(
+                    task,
+                    params,
+                    PRIORITIES.get(task.getTaskType(), PRIORITY_DEFAULT),
+                    mNextSeq++);
+
+            String key = getCollapseKey(task);
+            if(key != null) {
+                Entry previous = mPending.get(key);
+                if(previous != null) {
+                    // Latest value wins: take place of the previous task in the queue
+                    mQueue.remove(previous);
+                    entry.seq = previous.seq;
+                    entry.superseded.add(previous.task);
+                    entry.superseded.addAll(previous.superseded);
+                    mCollapsedCount++;
+                    Logger.v(TAG, "submit: collapse task: type=" + task.getTaskType() + " collapsed=" + entry.superseded.size());
+                }
+                mPending.put(key, entry);
+            }
+            mQueue.add(entry);
+        }
+        schedule();
+    }
+
+    /**
+     * @return number of tasks which were replaced by newer tasks
+     */
+    synchronized long getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            if(mWaitingForGate || mRunning >= MAX_RUNNING || mQueue.isEmpty()) {
+                return;
+            }
+            mWaitingForGate = true;
+        }
+
+        // Wait until engine is started. Tasks stay in the queue meanwhile, so they keep
+        // their priority and can be collapsed.
+        EngineGate.getInstance().enqueue(new EngineGate.Call() {
+            @Override
+            public void run() {
+                startQueued();
+            }
+
+            @Override
+            public void fail(@NonNull String error) {
+                failQueued(error);
+            }
+        });
+    }
+
+    private void startQueued() {
+        List<Entry> toRun = new ArrayList<>(1);
+        synchronized (this) {
+            mWaitingForGate = false;
+            while(mRunning < MAX_RUNNING && !mQueue.isEmpty()) {
+                mRunning++;
+                toRun.add(poll());
+            }
+        }
+
+        for(Entry entry: toRun) {
+            startEntry(entry);
+        }
+    }
+
+    private void failQueued(@NonNull String error) {
+        List<Entry> failed;
+        synchronized (this) {
+            mWaitingForGate = false;
+            failed = new ArrayList<>(mQueue.size());
+            while(!mQueue.isEmpty()) {
+                failed.add(poll());
+            }
+        }
+
+        Logger.v(TAG, "failQueued: tasks=" + failed.size() + " error=" + error);
+        String response = HttpAsyncTask.errorResponse(error);
+        for(Entry entry: failed) {
+            notifyNotStarted(entry, response);
+        }
+    }
+
+    @NonNull
+    private Entry poll() {
+        Entry entry = mQueue.poll();
+        String key = getCollapseKey(entry.task);
+        if(key != null && mPending.get(key) == entry) {
+            mPending.remove(key);
+        }
+        return entry;
+    }
+
+    private void startEntry(@NonNull final Entry entry) {
+        try {
+            Workers.engineIo().execute(new Runnable() {
+                @Override
+                public void run() {
+                    runEntry(entry);
+                }
+            });
+        }
+        catch(RuntimeException e) {
+            Logger.e(TAG, "schedule: failed to start task", e);
+            notifyNotStarted(entry, null);
+            synchronized (this) {
+                mRunning--;
+            }
+            schedule();
+        }
+    }
+
+    private void runEntry(@NonNull final Entry entry) {
+        // Start callbacks are sent when task is actually started
+        Workers.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                entry.task.onPreExecute();
+                for(HttpAsyncTask task: entry.superseded) {
+                    task.onPreExecute();
+                }
+            }
+        });
+
+        String result = null;
+        try {
+            result = entry.task.doInBackground(entry.params);
+        }
+        finally {
+            finishEntry(entry, result);
+        }
+    }
+
+    private void finishEntry(@NonNull final Entry entry, @Nullable final String result) {
+        Workers.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                entry.task.onPostExecute(result);
+                for(HttpAsyncTask task: entry.superseded) {
+                    task.onPostExecute(result);
+                }
+            }
+        });
+
+        synchronized (this) {
+            mRunning--;
+        }
+        schedule();
+    }
+
+    /**
+     * Task was not started: listeners still get matching start and finish callbacks.
+     */
+    private void notifyNotStarted(@NonNull final Entry entry, @Nullable final String result) {
+        Workers.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                entry.task.onPreExecute();
+                entry.task.onPostExecute(result);
+                for(HttpAsyncTask task: entry.superseded) {
+                    task.onPreExecute();
+                    task.onPostExecute(result);
+                }
+            }
+        });
+    }
+
+    @Nullable
+    private static String getCollapseKey(@NonNull HttpAsyncTask task) {
+        switch(task.getTaskType()) {
+            case HTTPTASK_SET_SCREEN_STATUS:
+            case HTTPTASK_SET_IS_ONLINE:
+                return task.getTaskType() + ":" + task.getHttpApiPort();
+            default:
+                return null;
+        }
+    }
+}
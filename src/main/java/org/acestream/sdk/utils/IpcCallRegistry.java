@@ -0,0 +1,209 @@
+package org.acestream.sdk.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Pending calls to remote service waiting for response.
+ *
+ * Each call gets unique id which is sent with request and returned by service in responses.
+ * Calls which don't get final response or acknowledgement in time are removed and failed.
+ * Acknowledged calls are released silently when their TTL expires.
+ *
+ * @param <T> Listener type
+ */
+public class IpcCallRegistry<T> {
+    private final static String TAG = "AS/IpcCalls";
+
+    public interface FailureHandler<T> {
+        /**
+         * Called on the main thread when call is failed without response.
+         */
+        void onFailure(@NonNull T listener, @NonNull String error);
+    }
+
+    public final static String ERROR_TIMEOUT = "request timeout";
+
+    /**
+     * Handle of pending call.
+     */
+    public static class Call<T> {
+        private final IpcCallRegistry<T> mRegistry;
+        private final int mId;
+        private final T mListener;
+        private final Runnable mTimeoutTask;
+        private final Runnable mExpireTask;
+        private volatile boolean mDone = false;
+
+        private Call(IpcCallRegistry<T> registry, int id, T listener) {
+            mRegistry = registry;
+            mId = id;
+            mListener = listener;
+            mTimeoutTask = new Runnable() {
+                @Override
+                public void run() {
+                    mRegistry.fail(mId, ERROR_TIMEOUT);
+                }
+            };
+            mExpireTask = new Runnable() {
+                @Override
+                public void run() {
+                    if(mRegistry.release(mId) != null) {
+                        Log.d(TAG, mRegistry.mName + ": acknowledged call expired: id=" + mId);
+                    }
+                }
+            };
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        @NonNull
+        public T getListener() {
+            return mListener;
+        }
+
+        public boolean isDone() {
+            return mDone;
+        }
+
+        /**
+         * Forget call without notifying listener. Later responses are ignored.
+         */
+        public void cancel() {
+            mRegistry.release(mId);
+        }
+    }
+
+    private final String mName;
+    private final long mTimeout;
+    private final long mAcknowledgedTtl;
+    private final FailureHandler<T> mFailureHandler;
+    private final AtomicInteger mNextId = new AtomicInteger(1);
+    private final ConcurrentHashMap<Integer, Call<T>> mCalls = new ConcurrentHashMap<>();
+
+    /**
+     * @param timeout Time to wait for final response, ms
+     */
+    public IpcCallRegistry(@NonNull String name, long timeout, @NonNull FailureHandler<T> failureHandler) {
+        this(name, timeout, timeout, failureHandler);
+    }
+
+    /**
+     * @param timeout Time to wait for final response or acknowledgement, ms
+     * @param acknowledgedTtl Time to keep acknowledged call, ms
+     */
+    public IpcCallRegistry(@NonNull String name, long timeout, long acknowledgedTtl, @NonNull FailureHandler<T> failureHandler) {
+        mName = name;
+        mTimeout = timeout;
+        mAcknowledgedTtl = acknowledgedTtl;
+        mFailureHandler = failureHandler;
+    }
+
+    @NonNull
+    public Call<T> register(@NonNull T listener) {
+        Call<T> call = new Call<>(this, mNextId.getAndIncrement(), listener);
+        mCalls.put(call.mId, call);
+        Workers.postOnMainThread(call.mTimeoutTask, mTimeout);
+        return call;
+    }
+
+    /**
+     * @return listener of pending call or null if call is unknown, finished or expired
+     */
+    @Nullable
+    public T get(int id) {
+        Call<T> call = mCalls.get(id);
+        return call == null ? null : call.mListener;
+    }
+
+    /**
+     * Call got response but stays registered for further events until it is released, failed
+     * or its TTL expires. Timeout doesn't apply anymore. Each acknowledgement restarts TTL.
+     *
+     * @return listener of pending call or null if call is unknown, finished or expired
+     */
+    @Nullable
+    public T acknowledge(int id) {
+        Call<T> call = mCalls.get(id);
+        if(call == null) {
+            return null;
+        }
+        Workers.removeFromMainThread(call.mTimeoutTask);
+        Workers.removeFromMainThread(call.mExpireTask);
+        Workers.postOnMainThread(call.mExpireTask, mAcknowledgedTtl);
+        return call.mListener;
+    }
+
+    /**
+     * Call got final response.
+     *
+     * @return listener of pending call or null if call is unknown, finished or expired
+     */
+    @Nullable
+    public T release(int id) {
+        Call<T> call = mCalls.remove(id);
+        if(call == null) {
+            return null;
+        }
+        finish(call);
+        return call.mListener;
+    }
+
+    /**
+     * Forget all pending calls of this listener without notifying it.
+     */
+    public void releaseAll(@NonNull T listener) {
+        for(Call<T> call: mCalls.values()) {
+            if(call.mListener == listener) {
+                release(call.mId);
+            }
+        }
+    }
+
+    /**
+     * Fail all pending calls (e.g. service is gone).
+     */
+    public void failAll(@NonNull String error) {
+        List<Integer> ids = new ArrayList<>(mCalls.keySet());
+        for(int id: ids) {
+            fail(id, error);
+        }
+    }
+
+    public int getPendingCount() {
+        return mCalls.size();
+    }
+
+    /**
+     * Fail pending call (e.g. request was not sent).
+     */
+    public void fail(int id, @NonNull final String error) {
+        final Call<T> call = mCalls.remove(id);
+        if(call == null) {
+            return;
+        }
+        finish(call);
+        Log.w(TAG, mName + ": call failed: id=" + id + " error=" + error);
+        Workers.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mFailureHandler.onFailure(call.mListener, error);
+            }
+        });
+    }
+
+    private void finish(@NonNull Call<T> call) {
+        call.mDone = true;
+        Workers.removeFromMainThread(call.mTimeoutTask);
+        Workers.removeFromMainThread(call.mExpireTask);
+    }
+}
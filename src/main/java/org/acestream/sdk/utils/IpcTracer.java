@@ -0,0 +1,212 @@
+package org.acestream.sdk.utils;
+
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Optional tracing of messenger traffic.
+ *
+ * Outgoing messages are stamped with sequence number and send time. For incoming messages
+ * stamped by the other side the time from send to handling is recorded. Records are kept in
+ * a fixed-size ring buffer which is written without locks; readers may see a record which is
+ * being overwritten, which is fine for statistics.
+ */
+public class IpcTracer {
+    public final static String PARAM_SEQ = "ipc_trace_seq";
+    public final static String PARAM_SENT_AT = "ipc_trace_sent_at";
+
+    public final static int DIRECTION_OUT = 0;
+    public final static int DIRECTION_IN = 1;
+
+    // Must be power of two
+    private final static int CAPACITY = 1024;
+
+    private volatile boolean mEnabled = false;
+    private final AtomicLong mSeq = new AtomicLong();
+    private final AtomicLong mWriteIndex = new AtomicLong();
+
+    private final int[] mWhat = new int[CAPACITY];
+    private final int[] mDirection = new int[CAPACITY];
+    private final int[] mSize = new int[CAPACITY];
+    // ms from send to start of handling, -1 if unknown
+    private final long[] mLatency = new long[CAPACITY];
+    // ns spent in handler, -1 for outgoing messages
+    private final long[] mHandleTime = new long[CAPACITY];
+
+    public static class Stats {
+        public final int what;
+        public final int direction;
+        public int count;
+        public long bytesTotal;
+        public int bytesMax;
+        public long latencyTotal;
+        public long latencyMax;
+        public int latencyCount;
+        public long handleTimeTotal;
+        public long handleTimeMax;
+
+        Stats(int what, int direction) {
+            this.what = what;
+            this.direction = direction;
+        }
+
+        public long getAverageBytes() {
+            return count == 0 ? 0 : bytesTotal / count;
+        }
+
+        public long getAverageLatency() {
+            return latencyCount == 0 ? -1 : latencyTotal / latencyCount;
+        }
+
+        public long getAverageHandleTime() {
+            return count == 0 ? 0 : handleTimeTotal / count;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.getDefault(),
+                    "%s what=%d count=%d bytes(avg/max)=%d/%d latency_ms(avg/max)=%d/%d handle_us(avg/max)=%d/%d",
+                    direction == DIRECTION_OUT ? "out" : "in",
+                    what,
+                    count,
+                    getAverageBytes(),
+                    bytesMax,
+                    getAverageLatency(),
+                    latencyMax,
+                    getAverageHandleTime() / 1000,
+                    handleTimeMax / 1000);
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Stamp outgoing message and record it.
+     */
+    public void onSend(@NonNull Message msg) {
+        if(!mEnabled) {
+            return;
+        }
+        Bundle data = msg.getData();
+        data.putLong(PARAM_SEQ, mSeq.incrementAndGet());
+        data.putLong(PARAM_SENT_AT, SystemClock.elapsedRealtime());
+        record(msg.what, DIRECTION_OUT, getSize(data), -1, -1);
+    }
+
+    /**
+     * @return time when handling started, must be passed to {@link #onHandled}
+     */
+    public long onHandleStart() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record incoming message after it was handled.
+     */
+    public void onHandled(int what, @NonNull Bundle data, long startedAt) {
+        if(!mEnabled || startedAt == 0) {
+            return;
+        }
+        long handleTime = System.nanoTime() - startedAt;
+        long latency = -1;
+        long sentAt = data.getLong(PARAM_SENT_AT, 0);
+        if(sentAt != 0) {
+            latency = SystemClock.elapsedRealtime() - sentAt - handleTime / 1000000;
+        }
+        record(what, DIRECTION_IN, getSize(data), latency, handleTime);
+    }
+
+    /**
+     * @return stats by message type and direction for records in buffer
+     */
+    @NonNull
+    public List<Stats> getSummary() {
+        long end = mWriteIndex.get();
+        long start = Math.max(0, end - CAPACITY);
+        SparseArray<Stats> byKey = new SparseArray<>();
+        for(long i = start; i < end; i++) {
+            int slot = (int)(i & (CAPACITY - 1));
+            int what = mWhat[slot];
+            int direction = mDirection[slot];
+            int key = what * 2 + direction;
+            Stats stats = byKey.get(key);
+            if(stats == null) {
+                stats = new Stats(what, direction);
+                byKey.put(key, stats);
+            }
+            stats.count++;
+            stats.bytesTotal += mSize[slot];
+            stats.bytesMax = Math.max(stats.bytesMax, mSize[slot]);
+            long latency = mLatency[slot];
+            if(latency >= 0) {
+                stats.latencyCount++;
+                stats.latencyTotal += latency;
+                stats.latencyMax = Math.max(stats.latencyMax, latency);
+            }
+            long handleTime = mHandleTime[slot];
+            if(handleTime > 0) {
+                stats.handleTimeTotal += handleTime;
+                stats.handleTimeMax = Math.max(stats.handleTimeMax, handleTime);
+            }
+        }
+
+        List<Stats> result = new ArrayList<>(byKey.size());
+        for(int i = 0; i < byKey.size(); i++) {
+            result.add(byKey.valueAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return total number of recorded messages, including ones dropped from buffer
+     */
+    public long getRecordedCount() {
+        return mWriteIndex.get();
+    }
+
+    @NonNull
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for(Stats stats: getSummary()) {
+            sb.append(stats).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void record(int what, int direction, int size, long latency, long handleTime) {
+        int slot = (int)(mWriteIndex.getAndIncrement() & (CAPACITY - 1));
+        mWhat[slot] = what;
+        mDirection[slot] = direction;
+        mSize[slot] = size;
+        mLatency[slot] = latency;
+        mHandleTime[slot] = handleTime;
+    }
+
+    private static int getSize(@NonNull Bundle data) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(data);
+            return parcel.dataSize();
+        }
+        finally {
+            parcel.recycle();
+        }
+    }
+}
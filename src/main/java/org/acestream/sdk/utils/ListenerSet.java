@@ -0,0 +1,81 @@
+package org.acestream.sdk.utils;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Listeners with executor on which each listener wants to get callbacks.
+ */
+public class ListenerSet<T> {
+    public interface Action<T> {
+        void run(@NonNull T listener);
+    }
+
+    private static class Entry<T> {
+        final T listener;
+        final Executor executor;
+
+        Entry(T listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Entry<T>> mEntries = new CopyOnWriteArrayList<>();
+
+    /**
+     * Add listener which gets callbacks on the main thread.
+     */
+    public void add(@NonNull T listener) {
+        add(listener, Workers.mainThread());
+    }
+
+    /**
+     * @param executor Executor for callbacks. Use {@link Workers#direct()} to get callbacks on
+     *                 the thread which dispatches them.
+     */
+    public synchronized void add(@NonNull T listener, @NonNull Executor executor) {
+        for(Entry<T> entry: mEntries) {
+            if(entry.listener.equals(listener)) {
+                if(entry.executor == executor) {
+                    return;
+                }
+                mEntries.remove(entry);
+                break;
+            }
+        }
+        mEntries.add(new Entry<>(listener, executor));
+    }
+
+    public synchronized void remove(@NonNull T listener) {
+        for(Entry<T> entry: mEntries) {
+            if(entry.listener.equals(listener)) {
+                mEntries.remove(entry);
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Run action for each listener on its executor. Listener which was removed before its
+     * executor runs the action is skipped.
+     */
+    public void forEach(@NonNull final Action<T> action) {
+        for(final Entry<T> entry: mEntries) {
+            entry.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(mEntries.contains(entry)) {
+                        action.run(entry.listener);
+                    }
+                }
+            });
+        }
+    }
+}
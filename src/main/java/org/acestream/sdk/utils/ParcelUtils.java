@@ -0,0 +1,112 @@
+package org.acestream.sdk.utils;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Helpers for versioned parcel encoding.
+ *
+ * Each object is written as: version, payload size, payload. Reader skips payload fields it
+ * doesn't know, so fields can be appended in newer versions.
+ *
+ * Fields are read with helpers which take payload end: fields missing from a shorter block
+ * written by older version get default value, so reader never reads past the block.
+ */
+public class ParcelUtils {
+
+    /**
+     * Write block header.
+     *
+     * @return position which must be passed to {@link #endBlock}
+     */
+    public static int beginBlock(@NonNull Parcel dest, int version) {
+        dest.writeInt(version);
+        int start = dest.dataPosition();
+        // size placeholder
+        dest.writeInt(0);
+        return start;
+    }
+
+    public static void endBlock(@NonNull Parcel dest, int start) {
+        int end = dest.dataPosition();
+        dest.setDataPosition(start);
+        dest.writeInt(end - start - 4);
+        dest.setDataPosition(end);
+    }
+
+    /**
+     * Read block header.
+     *
+     * @return block version. Payload end is stored in |end[0]|.
+     */
+    public static int readBlock(@NonNull Parcel in, @NonNull int[] end) {
+        int version = in.readInt();
+        int size = in.readInt();
+        end[0] = in.dataPosition() + size;
+        return version;
+    }
+
+    /**
+     * Skip unknown fields at the end of block.
+     */
+    public static void skipBlock(@NonNull Parcel in, int end) {
+        if(in.dataPosition() != end) {
+            in.setDataPosition(end);
+        }
+    }
+
+    public static void writeNullable(@NonNull Parcel dest, @Nullable Parcelable value, int flags) {
+        if(value == null) {
+            dest.writeInt(0);
+        }
+        else {
+            dest.writeInt(1);
+            value.writeToParcel(dest, flags);
+        }
+    }
+
+    @Nullable
+    public static <T> T readNullable(@NonNull Parcel in, @NonNull Parcelable.Creator<T> creator) {
+        return in.readInt() == 0 ? null : creator.createFromParcel(in);
+    }
+
+    /**
+     * @return true if block which ends at |end| has more fields
+     */
+    public static boolean hasMore(@NonNull Parcel in, int end) {
+        return in.dataPosition() < end;
+    }
+
+    public static int readInt(@NonNull Parcel in, int end, int defaultValue) {
+        return hasMore(in, end) ? in.readInt() : defaultValue;
+    }
+
+    public static double readDouble(@NonNull Parcel in, int end, double defaultValue) {
+        return hasMore(in, end) ? in.readDouble() : defaultValue;
+    }
+
+    public static float readFloat(@NonNull Parcel in, int end, float defaultValue) {
+        return hasMore(in, end) ? in.readFloat() : defaultValue;
+    }
+
+    @Nullable
+    public static String readString(@NonNull Parcel in, int end, @Nullable String defaultValue) {
+        return hasMore(in, end) ? in.readString() : defaultValue;
+    }
+
+    @Nullable
+    public static <T> T readNullable(@NonNull Parcel in, int end, @NonNull Parcelable.Creator<T> creator) {
+        return hasMore(in, end) ? readNullable(in, creator) : null;
+    }
+
+    @Nullable
+    public static <T> List<T> readTypedList(@NonNull Parcel in, int end, @NonNull Parcelable.Creator<T> creator) {
+        return hasMore(in, end) ? in.createTypedArrayList(creator) : null;
+    }
+}
@@ -0,0 +1,118 @@
+package org.acestream.sdk.utils;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.MediaType;
+
+/**
+ * Reads HTTP responses without line splitting and per-line allocations.
+ *
+ * Body is decoded incrementally into pooled fixed-size char buffers with charset from
+ * Content-Type header (UTF-8 by default). Callers which don't need the whole body as a string
+ * can process the stream directly with {@link Handler}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ResponseReader {
+    public final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final static int BUFFER_SIZE = 8192;
+    private final static int MAX_POOLED_BUFFERS = 16;
+    // Don't trust Content-Length for huge preallocation
+    private final static int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    private final static ArrayDeque<char[]> sBufferPool = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+    /**
+     * Processes response stream on worker thread.
+     */
+    public interface Handler<T> {
+        T handle(@NonNull InputStream stream, @NonNull Charset charset) throws IOException;
+    }
+
+    /**
+     * Handler which reads the whole body as string.
+     */
+    public final static Handler<String> STRING = new Handler<String>() {
+        @Override
+        public String handle(@NonNull InputStream stream, @NonNull Charset charset) throws IOException {
+            return readString(stream, charset);
+        }
+    };
+
+    @NonNull
+    public static Charset getCharset(@Nullable MediaType contentType) {
+        Charset charset = (contentType == null) ? null : contentType.charset();
+        return charset == null ? UTF_8 : charset;
+    }
+
+    @NonNull
+    public static JsonReader jsonReader(@NonNull InputStream stream, @NonNull Charset charset) {
+        JsonReader reader = new JsonReader(new InputStreamReader(stream, charset));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * Read the whole stream and decode it as string. Stream is not closed.
+     */
+    @NonNull
+    public static String readString(@NonNull InputStream stream, @NonNull Charset charset) throws IOException {
+        return readString(stream, charset, -1);
+    }
+
+    /**
+     * Read the whole stream and decode it as string. Stream is not closed.
+     *
+     * Bytes are decoded incrementally, so multi-byte chars on buffer boundaries are handled by
+     * decoder and the body is not copied once more before decoding.
+     *
+     * @param contentLength Content-Length of the body or -1 if unknown. Used only to size the
+     *                      result: number of chars never exceeds number of bytes.
+     */
+    @NonNull
+    public static String readString(@NonNull InputStream stream, @NonNull Charset charset, long contentLength) throws IOException {
+        int capacity = (contentLength > 0)
+                ? (int) Math.min(contentLength, MAX_INITIAL_CAPACITY)
+                : BUFFER_SIZE;
+        StringBuilder sb = new StringBuilder(capacity);
+        // Reader is not closed: it would close the stream
+        InputStreamReader reader = new InputStreamReader(stream, charset);
+        char[] buffer = acquireBuffer();
+        try {
+            int n;
+            while((n = reader.read(buffer, 0, buffer.length)) != -1) {
+                sb.append(buffer, 0, n);
+            }
+        }
+        finally {
+            releaseBuffer(buffer);
+        }
+        return sb.toString();
+    }
+
+    private static char[] acquireBuffer() {
+        synchronized (sBufferPool) {
+            char[] buffer = sBufferPool.pollFirst();
+            if(buffer != null) {
+                return buffer;
+            }
+        }
+        return new char[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(@NonNull char[] buffer) {
+        synchronized (sBufferPool) {
+            if(sBufferPool.size() < MAX_POOLED_BUFFERS) {
+                sBufferPool.addFirst(buffer);
+            }
+        }
+    }
+}
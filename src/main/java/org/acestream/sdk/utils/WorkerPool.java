@@ -0,0 +1,175 @@
+package org.acestream.sdk.utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Named bounded thread pool which tracks queue depth and time tasks spend waiting in queue.
+ */
+@SuppressWarnings("WeakerAccess")
+public class WorkerPool extends ThreadPoolExecutor {
+    private final String mName;
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mTotalWaitTime = new AtomicLong();
+    private final AtomicLong mMaxWaitTime = new AtomicLong();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final int mPriority;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mPriority);
+                    runnable.run();
+                }
+            }, mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    // Remembers when task was queued
+    private static class QueuedTask implements Runnable {
+        final Runnable task;
+        final long queuedAt;
+
+        QueuedTask(Runnable task) {
+            this.task = task;
+            this.queuedAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * Pool statistics.
+     */
+    public static class Stats {
+        public final String name;
+        public final int threads;
+        public final int activeThreads;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long submitted;
+        public final long completed;
+        public final long rejected;
+        public final long totalWaitTime;
+        public final long maxWaitTime;
+
+        private Stats(WorkerPool pool) {
+            name = pool.mName;
+            threads = pool.getPoolSize();
+            activeThreads = pool.getActiveCount();
+            queueDepth = pool.getQueue().size();
+            maxQueueDepth = pool.mMaxQueueDepth.get();
+            submitted = pool.mSubmitted.get();
+            completed = pool.getCompletedTaskCount();
+            rejected = pool.mRejected.get();
+            totalWaitTime = pool.mTotalWaitTime.get();
+            maxWaitTime = pool.mMaxWaitTime.get();
+        }
+
+        public long getAverageWaitTime() {
+            return completed == 0 ? 0 : totalWaitTime / completed;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return String.format(Locale.getDefault(),
+                    "%s: threads=%d active=%d queue=%d max_queue=%d submitted=%d completed=%d rejected=%d wait_avg=%d wait_max=%d",
+                    name,
+                    threads,
+                    activeThreads,
+                    queueDepth,
+                    maxQueueDepth,
+                    submitted,
+                    completed,
+                    rejected,
+                    getAverageWaitTime(),
+                    maxWaitTime);
+        }
+    }
+
+    /**
+     * @param name Pool name, used for thread names
+     * @param threads Max number of threads
+     * @param queueSize Max number of queued tasks. Tasks above this limit are rejected.
+     * @param priority Thread priority, see {@link Process}
+     */
+    public WorkerPool(@NonNull String name, int threads, int queueSize, int priority) {
+        super(threads,
+                threads,
+                30,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize),
+                new NamedThreadFactory(name, priority));
+        mName = name;
+        allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    @NonNull
+    public Stats getStats() {
+        return new Stats(this);
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        mSubmitted.incrementAndGet();
+        try {
+            super.execute(command instanceof QueuedTask ? command : new QueuedTask(command));
+        }
+        catch(RuntimeException e) {
+            mRejected.incrementAndGet();
+            throw e;
+        }
+
+        int depth = getQueue().size();
+        int max;
+        do {
+            max = mMaxQueueDepth.get();
+        } while(depth > max && !mMaxQueueDepth.compareAndSet(max, depth));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if(r instanceof QueuedTask) {
+            long wait = SystemClock.elapsedRealtime() - ((QueuedTask) r).queuedAt;
+            mTotalWaitTime.addAndGet(wait);
+            long max;
+            do {
+                max = mMaxWaitTime.get();
+            } while(wait > max && !mMaxWaitTime.compareAndSet(max, wait));
+        }
+    }
+}
@@ -2,10 +2,42 @@ package org.acestream.sdk.utils;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 public class Workers {
+    private final static String TAG = "AS/Workers";
+
     private static final Handler sMainThreadHandler = new Handler(Looper.getMainLooper());
 
+    // Shared pools
+    private static final WorkerPool sEngineIo = new WorkerPool("engine-io", 8, 128, Process.THREAD_PRIORITY_BACKGROUND);
+    private static final WorkerPool sRemoteIo = new WorkerPool("remote-io", 4, 64, Process.THREAD_PRIORITY_BACKGROUND);
+    private static final WorkerPool sDisk = new WorkerPool("disk", 2, 64, Process.THREAD_PRIORITY_BACKGROUND);
+    private static final WorkerPool sCompute = new WorkerPool(
+            "compute",
+            Math.max(2, Runtime.getRuntime().availableProcessors() - 1),
+            128,
+            Process.THREAD_PRIORITY_BACKGROUND);
+
+    private static final Executor sMainThreadExecutor = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runOnMainThread(runnable);
+        }
+    };
+
+    private static final Executor sDirectExecutor = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
     public static boolean isOnMainThread() {
         return Looper.myLooper() == Looper.getMainLooper();
     }
@@ -22,4 +54,69 @@ public class Workers {
     public static void postOnMainThread(Runnable runnable, long delay) {
         sMainThreadHandler.postDelayed(runnable, delay);
     }
+
+    public static void removeFromMainThread(Runnable runnable) {
+        sMainThreadHandler.removeCallbacks(runnable);
+    }
+
+    /**
+     * Executor which runs tasks on the main thread. Tasks submitted from the main thread are
+     * run immediately.
+     */
+    public static Executor mainThread() {
+        return sMainThreadExecutor;
+    }
+
+    /**
+     * Executor which runs tasks on the calling thread.
+     */
+    public static Executor direct() {
+        return sDirectExecutor;
+    }
+
+    /**
+     * Pool for requests to local engine.
+     */
+    public static WorkerPool engineIo() {
+        return sEngineIo;
+    }
+
+    /**
+     * Pool for requests to remote hosts.
+     */
+    public static WorkerPool remoteIo() {
+        return sRemoteIo;
+    }
+
+    /**
+     * Pool for file operations.
+     */
+    public static WorkerPool disk() {
+        return sDisk;
+    }
+
+    /**
+     * Pool for CPU-bound work.
+     */
+    public static WorkerPool compute() {
+        return sCompute;
+    }
+
+    public static List<WorkerPool.Stats> getStats() {
+        List<WorkerPool.Stats> stats = new ArrayList<>(4);
+        stats.add(sEngineIo.getStats());
+        stats.add(sRemoteIo.getStats());
+        stats.add(sDisk.getStats());
+        stats.add(sCompute.getStats());
+        return stats;
+    }
+
+    /**
+     * Print pools statistics to logcat.
+     */
+    public static void dumpStats() {
+        for(WorkerPool.Stats stats: getStats()) {
+            Log.i(TAG, stats.toString());
+        }
+    }
 }
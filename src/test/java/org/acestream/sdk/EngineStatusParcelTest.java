@@ -0,0 +1,149 @@
+package org.acestream.sdk;
+
+import android.os.Parcel;
+
+import org.acestream.sdk.utils.ParcelUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EngineStatusParcelTest {
+    // Written after the object to check that reader stops at the end of block
+    private final static int SENTINEL = 0x5a5a5a5a;
+
+    private Parcel mParcel;
+
+    @Before
+    public void setUp() {
+        mParcel = Parcel.obtain();
+    }
+
+    @After
+    public void tearDown() {
+        mParcel.recycle();
+    }
+
+    @Test
+    public void roundTrip() {
+        EngineStatus status = new EngineStatus();
+        status.status = "dl";
+        status.playbackSessionId = "psid";
+        status.progress = 50;
+        status.peers = 12;
+        status.speedDown = 1024;
+        status.speedUp = 64;
+        status.livePos = new EngineStatus.LivePosition();
+        status.livePos.first = 1;
+        status.livePos.last = 100;
+        status.livePos.pos = 90;
+        status.livePos.isLive = true;
+        status.livePos.bufferPieces = 5;
+        ContentStream stream = new ContentStream();
+        stream.index = 1;
+        stream.name = "720p";
+        stream.bandwidth = 2000000;
+        status.streams.add(stream);
+        status.currentStreamIndex = 1;
+        status.isLive = 1;
+        status.selectedPlayer = new SelectedPlayer(SelectedPlayer.ACESTREAM_DEVICE, "device-id", null);
+        status.systemInfo = new SystemUsageInfo();
+        status.systemInfo.memoryTotal = 2048;
+        status.systemInfo.cpuUsage = 0.5f;
+        status.outputFormat = "hls";
+        status.fileIndex = 2;
+        status.clientSessionId = 7;
+        status.contentKey = "key";
+
+        status.writeToParcel(mParcel, 0);
+        mParcel.writeInt(SENTINEL);
+        mParcel.setDataPosition(0);
+        EngineStatus read = EngineStatus.CREATOR.createFromParcel(mParcel);
+
+        assertEquals(SENTINEL, mParcel.readInt());
+        assertEquals("dl", read.status);
+        assertEquals("psid", read.playbackSessionId);
+        assertEquals(50, read.progress);
+        assertEquals(12, read.peers);
+        assertEquals(1024, read.speedDown);
+        assertEquals(64, read.speedUp);
+        assertNotNull(read.livePos);
+        assertEquals(90, read.livePos.pos);
+        assertTrue(read.livePos.isLive);
+        assertEquals(5, read.livePos.bufferPieces);
+        assertEquals(1, read.streams.size());
+        assertEquals("720p", read.streams.get(0).name);
+        assertEquals(2000000, read.streams.get(0).bandwidth);
+        assertEquals(1, read.isLive);
+        assertNotNull(read.selectedPlayer);
+        assertEquals(SelectedPlayer.ACESTREAM_DEVICE, read.selectedPlayer.type);
+        assertEquals("device-id", read.selectedPlayer.id1);
+        assertNotNull(read.systemInfo);
+        assertEquals(2048, read.systemInfo.memoryTotal, 0);
+        assertEquals(0.5f, read.systemInfo.cpuUsage, 0);
+        assertEquals("hls", read.outputFormat);
+        assertEquals(2, read.fileIndex);
+        assertEquals(7, read.clientSessionId);
+        assertEquals("key", read.contentKey);
+    }
+
+    @Test
+    public void readsShorterBlockOfOlderWriter() {
+        // v1 block which has only the first fields
+        int start = ParcelUtils.beginBlock(mParcel, 1);
+        mParcel.writeString("prebuf");
+        mParcel.writeString("psid");
+        mParcel.writeInt(30);
+        mParcel.writeInt(4);
+        ParcelUtils.endBlock(mParcel, start);
+        mParcel.writeInt(SENTINEL);
+
+        mParcel.setDataPosition(0);
+        EngineStatus read = EngineStatus.CREATOR.createFromParcel(mParcel);
+
+        assertEquals(SENTINEL, mParcel.readInt());
+        assertEquals("prebuf", read.status);
+        assertEquals("psid", read.playbackSessionId);
+        assertEquals(30, read.progress);
+        assertEquals(4, read.peers);
+        // missing fields have defaults
+        assertEquals(0, read.speedDown);
+        assertNull(read.livePos);
+        assertNotNull(read.streams);
+        assertEquals(0, read.streams.size());
+        assertEquals(-1, read.isLive);
+        assertNull(read.selectedPlayer);
+        assertEquals(-1, read.fileIndex);
+        assertEquals(-1, read.clientSessionId);
+        assertEquals(-1, read.isOurPlayer);
+    }
+
+    @Test
+    public void skipsFieldsOfNewerWriter() {
+        int start = ParcelUtils.beginBlock(mParcel, 2);
+        mParcel.writeInt(SelectedPlayer.CONNECTABLE_DEVICE);
+        mParcel.writeString("id1");
+        mParcel.writeString("id2");
+        mParcel.writeString("name");
+        // fields added in version 2
+        mParcel.writeString("unknown");
+        mParcel.writeLong(42);
+        ParcelUtils.endBlock(mParcel, start);
+        mParcel.writeInt(SENTINEL);
+
+        mParcel.setDataPosition(0);
+        SelectedPlayer read = SelectedPlayer.CREATOR.createFromParcel(mParcel);
+
+        assertEquals(SENTINEL, mParcel.readInt());
+        assertEquals(SelectedPlayer.CONNECTABLE_DEVICE, read.type);
+        assertEquals("id1", read.id1);
+        assertEquals("id2", read.id2);
+    }
+}
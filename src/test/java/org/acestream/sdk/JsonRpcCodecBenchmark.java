@@ -0,0 +1,291 @@
+package org.acestream.sdk;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link JsonRpcCodec} with the org.json based codec which it replaced.
+ *
+ * Results must be the same: equivalence tests always run. Timing test runs only with
+ * -Djsonrpc.benchmark=true. Timings are not asserted, they are added to assertion messages.
+ * Number of iterations: -Djsonrpc.benchmark.iterations=N
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JsonRpcCodecBenchmark {
+    private final static int ITERATIONS = Integer.getInteger("jsonrpc.benchmark.iterations", 5000);
+    private final static int WARMUP_ITERATIONS = ITERATIONS / 5;
+
+    // Recorded from remote devices
+    private final static String[] MESSAGES = {
+            "{\"jsonrpc\":\"2.0\",\"method\":\"playerStatus\",\"params\":{\"state\":3,\"time\":1843560,\"duration\":5421000,"
+                    + "\"volume\":100,\"videoSize\":0,\"deinterlaceMode\":\"_disabled_\",\"audioDigitalOutputEnabled\":false,"
+                    + "\"aout\":\"opensles_android\",\"selectedAudioTrack\":1,"
+                    + "\"audioTracks\":[{\"id\":-1,\"name\":\"Disable\"},{\"id\":1,\"name\":\"Track 1 - [English]\"},{\"id\":2,\"name\":\"Track 2 - [\u0420\u0443\u0441\u0441\u043a\u0438\u0439]\"}],"
+                    + "\"selectedSubtitleTrack\":-1,"
+                    + "\"subtitleTracks\":[{\"id\":-1,\"name\":\"Disable\"},{\"id\":3,\"name\":\"Track 1 - [English]\"}]}}",
+            "{\"jsonrpc\":\"2.0\",\"method\":\"playerStatus\",\"params\":{\"state\":4,\"time\":0,\"duration\":0,"
+                    + "\"volume\":75,\"videoSize\":2,\"deinterlaceMode\":\"blend\",\"audioDigitalOutputEnabled\":true,"
+                    + "\"aout\":\"android_audiotrack\",\"selectedAudioTrack\":-1,\"audioTracks\":[],"
+                    + "\"selectedSubtitleTrack\":-1,\"subtitleTracks\":[]}}",
+            "{\"jsonrpc\":\"2.0\",\"method\":\"playerStatus\",\"params\":{\"state\":1,\"time\":120,\"duration\":7200500,"
+                    + "\"volume\":0,\"videoSize\":1,\"deinterlaceMode\":\"_disabled_\",\"aout\":null,\"position\":0.0166,"
+                    + "\"title\":\"Line\\nwith \\\"quotes\\\" and \\u00e9\"}}",
+            "{\"jsonrpc\":\"2.0\",\"method\":\"playerPlaying\"}",
+            "{\"jsonrpc\":\"2.0\",\"method\":\"playerTimeChanged\",\"params\":{\"value\":1843560}}",
+    };
+
+    @Test
+    public void decodeMatchesOrgJson() throws Exception {
+        for(String message: MESSAGES) {
+            LegacyMessage expected = LegacyMessage.decode(message);
+            JsonRpcMessage actual = JsonRpcMessage.fromString(message);
+
+            assertEquals(expected.method, actual.getMethod());
+            Map<String, Object> params = actual.getParams();
+            assertEquals(message, expected.params.keySet(), params.keySet());
+            for(Map.Entry<String, Object> entry: expected.params.entrySet()) {
+                assertJsonEquals(message, entry.getValue(), params.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void encodeMatchesOrgJson() throws Exception {
+        JsonRpcMessage reuse = new JsonRpcMessage(null);
+        for(String message: MESSAGES) {
+            String expected = LegacyMessage.decode(message).encode();
+            String actual = JsonRpcMessage.fromString(message, reuse).asString();
+
+            assertJsonEquals(message, new JSONObject(expected), new JSONObject(actual));
+
+            // round trip
+            JsonRpcMessage decoded = JsonRpcMessage.fromString(actual);
+            assertJsonEquals(message, new JSONObject(expected), new JSONObject(decoded.asString()));
+        }
+    }
+
+    @Test
+    public void playerStatusFieldsMatchOrgJson() throws Exception {
+        for(String message: MESSAGES) {
+            JsonRpcMessage msg = JsonRpcMessage.fromString(message);
+            if(!BaseRemoteDevice.Messages.PLAYER_STATUS.equals(msg.getMethod())) {
+                continue;
+            }
+            JSONObject params = new JSONObject(message).getJSONObject("params");
+
+            assertEquals(params.optInt("state"), msg.getInt("state"));
+            assertEquals(params.optLong("time"), msg.getLong("time"));
+            assertEquals(params.optLong("duration"), msg.getLong("duration"));
+            assertEquals(params.optInt("volume"), msg.getInt("volume"));
+            assertEquals(params.optBoolean("audioDigitalOutputEnabled"), msg.getBoolean("audioDigitalOutputEnabled"));
+            assertEquals(params.optString("deinterlaceMode"), msg.getString("deinterlaceMode"));
+            if(params.has("audioTracks")) {
+                assertJsonEquals(message, params.getJSONArray("audioTracks"), msg.getJSONArray("audioTracks"));
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("jsonrpc.benchmark"));
+
+        // warm up both paths before measuring
+        runDecodeLegacy(WARMUP_ITERATIONS);
+        runDecodeCodec(WARMUP_ITERATIONS);
+        runEncodeLegacy(WARMUP_ITERATIONS);
+        runEncodeCodec(WARMUP_ITERATIONS);
+
+        long t = System.nanoTime();
+        long legacyDecodeChecksum = runDecodeLegacy(ITERATIONS);
+        long legacyDecode = System.nanoTime() - t;
+
+        t = System.nanoTime();
+        long codecDecodeChecksum = runDecodeCodec(ITERATIONS);
+        long codecDecode = System.nanoTime() - t;
+
+        t = System.nanoTime();
+        long legacyEncodeChecksum = runEncodeLegacy(ITERATIONS);
+        long legacyEncode = System.nanoTime() - t;
+
+        t = System.nanoTime();
+        long codecEncodeChecksum = runEncodeCodec(ITERATIONS);
+        long codecEncode = System.nanoTime() - t;
+
+        int ops = ITERATIONS * MESSAGES.length;
+        String timings = String.format(Locale.US,
+                "JsonRpcCodec: %d ops, decode: org.json=%d ns/op codec=%d ns/op, encode: org.json=%d ns/op codec=%d ns/op",
+                ops,
+                legacyDecode / ops,
+                codecDecode / ops,
+                legacyEncode / ops,
+                codecEncode / ops);
+
+        // both paths read the same values
+        assertEquals(timings, legacyDecodeChecksum, codecDecodeChecksum);
+        assertTrue(timings, legacyEncodeChecksum > 0);
+        assertTrue(timings, codecEncodeChecksum > 0);
+    }
+
+    // Decode and read fields as BaseRemoteDevice does for playerStatus
+    private static long runDecodeLegacy(int iterations) throws JSONException {
+        long checksum = 0;
+        for(int i = 0; i < iterations; i++) {
+            for(String message: MESSAGES) {
+                LegacyMessage msg = LegacyMessage.decode(message);
+                checksum += msg.method.length();
+                Object state = msg.params.get("state");
+                if(state instanceof Number) {
+                    checksum += ((Number)state).intValue();
+                }
+                Object time = msg.params.get("time");
+                if(time instanceof Number) {
+                    checksum += ((Number)time).longValue();
+                }
+                Object tracks = msg.params.get("audioTracks");
+                if(tracks instanceof JSONArray) {
+                    checksum += ((JSONArray)tracks).length();
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private static long runDecodeCodec(int iterations) throws JSONException {
+        long checksum = 0;
+        JsonRpcMessage msg = new JsonRpcMessage(null);
+        for(int i = 0; i < iterations; i++) {
+            for(String message: MESSAGES) {
+                JsonRpcMessage.fromString(message, msg);
+                checksum += msg.getMethod().length();
+                checksum += msg.getInt("state");
+                checksum += msg.getLong("time");
+                JSONArray tracks = msg.getJSONArray("audioTracks");
+                if(tracks != null) {
+                    checksum += tracks.length();
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private static long runEncodeLegacy(int iterations) throws JSONException {
+        LegacyMessage[] messages = new LegacyMessage[MESSAGES.length];
+        for(int i = 0; i < MESSAGES.length; i++) {
+            messages[i] = LegacyMessage.decode(MESSAGES[i]);
+        }
+
+        long checksum = 0;
+        for(int i = 0; i < iterations; i++) {
+            for(LegacyMessage msg: messages) {
+                checksum += msg.encode().length();
+            }
+        }
+        return checksum;
+    }
+
+    private static long runEncodeCodec(int iterations) throws JSONException {
+        JsonRpcMessage[] messages = new JsonRpcMessage[MESSAGES.length];
+        for(int i = 0; i < MESSAGES.length; i++) {
+            messages[i] = JsonRpcMessage.fromString(MESSAGES[i]);
+            // parse nested values like legacy message does
+            messages[i].getParams();
+        }
+
+        long checksum = 0;
+        for(int i = 0; i < iterations; i++) {
+            for(JsonRpcMessage msg: messages) {
+                checksum += msg.asString().length();
+            }
+        }
+        return checksum;
+    }
+
+    private static void assertJsonEquals(String message, Object expected, Object actual) throws JSONException {
+        if(expected instanceof JSONObject) {
+            assertTrue(message, actual instanceof JSONObject);
+            JSONObject expectedObject = (JSONObject)expected;
+            JSONObject actualObject = (JSONObject)actual;
+            assertEquals(message, expectedObject.length(), actualObject.length());
+            Iterator<String> keys = expectedObject.keys();
+            while(keys.hasNext()) {
+                String key = keys.next();
+                assertTrue(message + ": missing " + key, actualObject.has(key));
+                assertJsonEquals(message, expectedObject.get(key), actualObject.get(key));
+            }
+        }
+        else if(expected instanceof JSONArray) {
+            assertTrue(message, actual instanceof JSONArray);
+            JSONArray expectedArray = (JSONArray)expected;
+            JSONArray actualArray = (JSONArray)actual;
+            assertEquals(message, expectedArray.length(), actualArray.length());
+            for(int i = 0; i < expectedArray.length(); i++) {
+                assertJsonEquals(message, expectedArray.get(i), actualArray.get(i));
+            }
+        }
+        else if(expected instanceof Number) {
+            assertTrue(message, actual instanceof Number);
+            assertEquals(message, ((Number)expected).doubleValue(), ((Number)actual).doubleValue(), 0);
+        }
+        else {
+            assertNotNull(message, actual);
+            assertEquals(message, expected, actual);
+        }
+    }
+
+    /**
+     * Codec used before {@link JsonRpcCodec}: full JSON tree on decode and encode.
+     */
+    private static class LegacyMessage {
+        final String method;
+        final Map<String, Object> params = new HashMap<>();
+
+        LegacyMessage(String method) {
+            this.method = method;
+        }
+
+        static LegacyMessage decode(String message) throws JSONException {
+            JSONObject root = new JSONObject(message);
+            if(!root.has("method")) {
+                throw new JSONException("missing method");
+            }
+            LegacyMessage msg = new LegacyMessage(root.getString("method"));
+            if(root.has("params")) {
+                JSONObject params = root.getJSONObject("params");
+                Iterator<String> keys = params.keys();
+                while(keys.hasNext()) {
+                    String key = keys.next();
+                    msg.params.put(key, params.get(key));
+                }
+            }
+            return msg;
+        }
+
+        String encode() throws JSONException {
+            JSONObject root = new JSONObject();
+            root.put("jsonrpc", "2.0");
+            root.put("method", method);
+            if(params.size() > 0) {
+                JSONObject paramsObj = new JSONObject();
+                for(Map.Entry<String, Object> entry: params.entrySet()) {
+                    paramsObj.put(entry.getKey(), entry.getValue());
+                }
+                root.put("params", paramsObj);
+            }
+            return root.toString();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.acestream.sdk.controller;
+
+import android.os.Looper;
+
+import org.acestream.sdk.EngineEvent;
+import org.acestream.sdk.EngineSession;
+import org.acestream.sdk.interfaces.EngineEventListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class EngineEventClientTest {
+    private final static long WAIT_TIMEOUT = 5000;
+
+    private MockWebServer mServer;
+    private EngineEventClient mClient;
+    private final List<EngineEvent> mEvents = new ArrayList<>();
+
+    private final EngineEventListener mListener = new EngineEventListener() {
+        @Override
+        public void onEngineEvent(@NonNull EngineEvent event) {
+            mEvents.add(event);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mClient = new EngineEventClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mClient.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void readsChunkedStreamOfEvents() throws Exception {
+        // Several top-level values in one chunked response, split at arbitrary points
+        mServer.enqueue(new MockResponse().setChunkedBody(
+                "{\"event\":\"download_stopped\",\"params\":{\"reason\":\"error\"}}\n"
+                        + "{\"response\":{\"event\":\"livepos\",\"params\":{\"pos\":100}},\"error\":null}\n"
+                        + "{\"name\":\"stats\",\"peers\":5}",
+                7));
+
+        mClient.addListener(null, mListener);
+        mClient.setSession(session("/events"));
+
+        waitForEvents(3);
+        assertEquals("download_stopped", mEvents.get(0).getName());
+        assertEquals("error", mEvents.get(0).getString("reason"));
+        assertEquals("livepos", mEvents.get(1).getName());
+        assertEquals(100, mEvents.get(1).getInt("pos", -1));
+        // Event without params: params are read from event object
+        assertEquals("stats", mEvents.get(2).getName());
+        assertEquals(5, mEvents.get(2).getInt("peers", -1));
+        assertEquals("psid", mEvents.get(2).getPlaybackSessionId());
+    }
+
+    @Test
+    public void reconnectsAfterLongPollResponse() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{\"event\":\"first\"}"));
+        mServer.enqueue(new MockResponse().setBody("{\"event\":\"second\"}"));
+
+        mClient.addListener(null, mListener);
+        mClient.setSession(session("/events"));
+
+        waitForEvents(2);
+        assertEquals("first", mEvents.get(0).getName());
+        assertEquals("second", mEvents.get(1).getName());
+        assertTrue(mServer.getRequestCount() >= 2);
+    }
+
+    @Test
+    public void reconnectsAfterServerError() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+        mServer.enqueue(new MockResponse().setBody("not json"));
+        mServer.enqueue(new MockResponse().setBody("{\"event\":\"recovered\"}"));
+
+        mClient.addListener(null, mListener);
+        mClient.setSession(session("/events"));
+
+        waitForEvents(1);
+        assertEquals("recovered", mEvents.get(0).getName());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void filtersEventsByName() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(
+                "{\"event\":\"a\"}{\"event\":\"b\"}{\"event\":\"a\"}"));
+
+        final List<EngineEvent> all = new ArrayList<>();
+        mClient.addListener(null, new EngineEventListener() {
+            @Override
+            public void onEngineEvent(@NonNull EngineEvent event) {
+                all.add(event);
+            }
+        });
+        mClient.addListener("a", mListener);
+        mClient.setSession(session("/events"));
+
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while(all.size() < 3 && System.currentTimeMillis() < deadline) {
+            idle();
+        }
+        assertEquals(3, all.size());
+        assertEquals(2, mEvents.size());
+        assertEquals("a", mEvents.get(0).getName());
+        assertEquals("a", mEvents.get(1).getName());
+    }
+
+    @Test
+    public void stopsWhenSessionIsCleared() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{\"event\":\"first\"}"));
+
+        mClient.addListener(null, mListener);
+        mClient.setSession(session("/events"));
+        waitForEvents(1);
+
+        mClient.setSession(null);
+        int requests = mServer.getRequestCount();
+        mServer.enqueue(new MockResponse().setBody("{\"event\":\"late\"}"));
+        Thread.sleep(300);
+        idle();
+
+        // At most one request which was already in flight
+        assertTrue(mServer.getRequestCount() <= requests + 1);
+        assertEquals(1, mEvents.size());
+    }
+
+    @Test
+    public void connectsOnlyWithListeners() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{\"event\":\"first\"}"));
+
+        mClient.setSession(session("/events"));
+        Thread.sleep(300);
+        assertEquals(0, mServer.getRequestCount());
+
+        mClient.addListener(null, mListener);
+        waitForEvents(1);
+        assertEquals("first", mEvents.get(0).getName());
+    }
+
+    private EngineSession session(@NonNull String path) {
+        EngineSession session = new EngineSession();
+        session.playbackSessionId = "psid";
+        session.eventUrl = mServer.url(path).toString();
+        return session;
+    }
+
+    // Events are dispatched on the main thread
+    private void waitForEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while(mEvents.size() < count && System.currentTimeMillis() < deadline) {
+            idle();
+        }
+        assertEquals(count, mEvents.size());
+    }
+
+    private void idle() throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(10);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,64 @@
+package org.acestream.sdk.controller;
+
+import android.os.Bundle;
+
+import org.acestream.sdk.controller.api.AceStreamPreferences;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EngineSettingsStoreTest {
+    private final EngineSettingsStore mStore = new EngineSettingsStore();
+
+    @Test
+    public void readersGetCopy() {
+        mStore.set(prefs("output_format_live", "hls"));
+
+        AceStreamPreferences prefs = mStore.getIfValid();
+        prefs.putString("output_format_live", "http");
+        mStore.current().putString("output_format_live", "http");
+
+        assertEquals("hls", mStore.getString("output_format_live", null));
+    }
+
+    @Test
+    public void staleFetchDoesNotOverwriteNewerPatch() {
+        assertTrue(mStore.beginFetch());
+        // changed by user while fetch is in flight
+        mStore.patch("output_format_live", "http");
+        mStore.set(prefs("output_format_live", "hls"));
+
+        assertEquals("http", mStore.getString("output_format_live", null));
+    }
+
+    @Test
+    public void fetchStartedAfterPatchConfirmsIt() {
+        mStore.patch("output_format_live", "http");
+        assertTrue(mStore.beginFetch());
+        mStore.set(prefs("output_format_live", "hls"));
+        assertEquals("hls", mStore.getString("output_format_live", null));
+
+        // patch is not re-applied to later updates
+        mStore.set(prefs("output_format_live", "auto"));
+        assertEquals("auto", mStore.getString("output_format_live", null));
+    }
+
+    @Test
+    public void patchWithNullRemovesValue() {
+        mStore.set(prefs("selected_player", "{}"));
+        mStore.patch("selected_player", null);
+
+        assertNull(mStore.getString("selected_player", null));
+    }
+
+    private static AceStreamPreferences prefs(String key, String value) {
+        Bundle bundle = new Bundle();
+        bundle.putString(key, value);
+        return new AceStreamPreferences(bundle);
+    }
+}
@@ -0,0 +1,159 @@
+package org.acestream.sdk.utils;
+
+import android.net.Uri;
+import android.os.Looper;
+
+import org.acestream.sdk.AceStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class HttpRequestCacheTest {
+    private final static long WAIT_TIMEOUT = 5000;
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        AceStream.init(RuntimeEnvironment.application,
+                RuntimeEnvironment.application.getFilesDir().getAbsolutePath(),
+                "test",
+                "test-uuid");
+        // Each test has its own cache dir
+        HttpClients.resetRemoteCached();
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void freshResponseIsServedFromCache() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "max-age=60")
+                .setBody("config-v1"));
+
+        HttpRequest.CacheStats before = HttpRequest.getCacheStats();
+        assertEquals("config-v1", get("/fresh"));
+        assertEquals("config-v1", get("/fresh"));
+        HttpRequest.CacheStats after = HttpRequest.getCacheStats();
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, after.missCount - before.missCount);
+        assertEquals(1, after.hitCount - before.hitCount);
+    }
+
+    @Test
+    public void revalidatesWithETag() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "no-cache")
+                .setHeader("ETag", "\"v1\"")
+                .setBody("ads-v1"));
+        mServer.enqueue(new MockResponse()
+                .setResponseCode(304)
+                .setHeader("ETag", "\"v1\""));
+
+        HttpRequest.CacheStats before = HttpRequest.getCacheStats();
+        assertEquals("ads-v1", get("/etag"));
+        assertEquals("ads-v1", get("/etag"));
+        HttpRequest.CacheStats after = HttpRequest.getCacheStats();
+
+        RecordedRequest first = mServer.takeRequest();
+        RecordedRequest second = mServer.takeRequest();
+        assertNull(first.getHeader("If-None-Match"));
+        assertEquals("\"v1\"", second.getHeader("If-None-Match"));
+        assertEquals(1, after.conditionalHitCount - before.conditionalHitCount);
+    }
+
+    @Test
+    public void revalidatesWithLastModified() throws Exception {
+        String lastModified = "Mon, 01 Jan 2018 00:00:00 GMT";
+        mServer.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "no-cache")
+                .setHeader("Last-Modified", lastModified)
+                .setBody("domain-v1"));
+        mServer.enqueue(new MockResponse()
+                .setResponseCode(304));
+
+        assertEquals("domain-v1", get("/last-modified"));
+        assertEquals("domain-v1", get("/last-modified"));
+
+        mServer.takeRequest();
+        RecordedRequest second = mServer.takeRequest();
+        assertEquals(lastModified, second.getHeader("If-Modified-Since"));
+    }
+
+    @Test
+    public void changedResourceIsDownloadedAgain() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "no-cache")
+                .setHeader("ETag", "\"v1\"")
+                .setBody("v1"));
+        mServer.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "no-cache")
+                .setHeader("ETag", "\"v2\"")
+                .setBody("v2"));
+
+        HttpRequest.CacheStats before = HttpRequest.getCacheStats();
+        assertEquals("v1", get("/changed"));
+        assertEquals("v2", get("/changed"));
+        HttpRequest.CacheStats after = HttpRequest.getCacheStats();
+
+        assertEquals(2, after.missCount - before.missCount);
+    }
+
+    @Test
+    public void noStoreIsNotCached() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "no-store")
+                .setBody("a"));
+        mServer.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "no-store")
+                .setBody("b"));
+
+        assertEquals("a", get("/no-store"));
+        assertEquals("b", get("/no-store"));
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    private String get(String path) throws InterruptedException {
+        final String[] result = new String[1];
+        final boolean[] done = new boolean[1];
+        HttpRequest.get(Uri.parse(mServer.url(path).toString()), null, new HttpRequest.Callback() {
+            @Override
+            public void onResponse(HttpRequest.Response response) {
+                result[0] = (response == null) ? null : response.body;
+                done[0] = true;
+            }
+        });
+
+        // Callback is called on the main thread
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while(!done[0] && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertNotNull("no response: " + path, result[0]);
+        return result[0];
+    }
+}